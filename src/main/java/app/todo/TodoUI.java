@@ -1,20 +1,38 @@
 package app.todo;
 
+import app.todo.model.Attachment;
 import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import app.todo.model.TodoFilter;
+import app.todo.service.AttachmentService;
+import app.todo.service.AttachmentUpload;
 import app.todo.service.Broadcastor;
 import app.todo.service.ExcelGenerator;
+import app.todo.service.ExportCache;
+import app.todo.service.ExportFormat;
+import app.todo.service.ExportJob;
+import app.todo.service.ExportJobService;
+import app.todo.service.ImportJob;
+import app.todo.service.PdfGenerator;
+import app.todo.service.ThumbnailService;
+import app.todo.service.TodoImportService;
 import app.todo.service.TodoService;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.Key;
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.button.ButtonVariant;
 import com.vaadin.flow.component.contextmenu.MenuItem;
+import com.vaadin.flow.component.datepicker.DatePicker;
 import com.vaadin.flow.component.dialog.Dialog;
 import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.grid.GridVariant;
 import com.vaadin.flow.component.html.H2;
 import com.vaadin.flow.component.html.H3;
+import com.vaadin.flow.component.html.Image;
 import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.icon.Icon;
 import com.vaadin.flow.component.icon.VaadinIcon;
@@ -25,10 +43,14 @@ import com.vaadin.flow.component.notification.NotificationVariant;
 import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.progressbar.ProgressBar;
 import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.component.upload.MultiFileReceiver;
 import com.vaadin.flow.component.upload.SucceededEvent;
 import com.vaadin.flow.component.upload.Upload;
-import com.vaadin.flow.component.upload.receivers.MultiFileMemoryBuffer;
+import com.vaadin.flow.component.upload.receivers.FileBuffer;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.router.BeforeEvent;
 import com.vaadin.flow.router.HasUrlParameter;
 import com.vaadin.flow.router.PageTitle;
@@ -37,19 +59,29 @@ import com.vaadin.flow.server.StreamRegistration;
 import com.vaadin.flow.server.StreamResource;
 import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.shared.Registration;
+import com.vaadin.flow.spring.data.VaadinSpringDataHelpers;
 import com.vaadin.flow.theme.lumo.LumoUtility;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.util.StringUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import static app.todo.service.PdfGenerator.createPdfResource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 @Route("t")
 @PageTitle("Modern Todo App")
@@ -64,15 +96,43 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
     @Autowired
     private GridFsTemplate gridFsTemplate;
 
+    @Autowired
+    private Broadcastor broadcastor;
+
+    @Autowired
+    private ExportJobService exportJobService;
+
+    @Autowired
+    private ExportCache exportCache;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private TodoImportService todoImportService;
+
     private Grid<Todo> todoGrid;
-    private VerticalLayout fileLayout;
+    private Grid<Attachment> attachmentGrid;
     private Registration broadcastRegistration;
+    private String broadcastTopic;
     private String author;
+    private TodoFilter filter = TodoFilter.empty();
+    private String searchText = "";
     private static final Logger logger = LoggerFactory.getLogger(TodoUI.class);
+    private static final Sort DEFAULT_SORT = Sort.by(Sort.Direction.DESC, "createdAt");
+    private static final AtomicInteger activeSessions = new AtomicInteger();
+
+    /**
+     * Todo views currently attached to a browser tab, on this node.
+     */
+    public static int getActiveSessions() {
+        return activeSessions.get();
+    }
 
     @Override
     protected void onAttach(AttachEvent attachEvent) {
         super.onAttach(attachEvent);
+        activeSessions.incrementAndGet();
 
         setSizeFull();
         setPadding(false);
@@ -83,6 +143,17 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         initializeBroadcastListener(attachEvent);
     }
 
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        activeSessions.decrementAndGet();
+        if (broadcastRegistration != null) {
+            broadcastRegistration.remove();
+            broadcastRegistration = null;
+            broadcastTopic = null;
+        }
+        super.onDetach(detachEvent);
+    }
+
     private void initializeHeader() {
         HorizontalLayout header = new HorizontalLayout();
         header.setWidthFull();
@@ -110,6 +181,7 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         content.setSpacing(false);
 
         initializeActionButtons(content);
+        initializeFilterBar(content);
         initializeGrid(content);
         initializeFileUploadSection(content);
 
@@ -139,16 +211,92 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         MenuItem pdfItem = exportMenuItem.getSubMenu().addItem("Export to PDF", e -> exportToPdf());
         pdfItem.addComponentAsFirst(new Icon(VaadinIcon.FILE_TEXT));
 
+        MenuItem filteredExcelItem = exportMenuItem.getSubMenu().addItem("Export all matching to Excel", e -> exportFiltered(ExportFormat.EXCEL));
+        filteredExcelItem.addComponentAsFirst(new Icon(VaadinIcon.FILE_TABLE));
+
+        MenuItem filteredPdfItem = exportMenuItem.getSubMenu().addItem("Export all matching to PDF", e -> exportFiltered(ExportFormat.PDF));
+        filteredPdfItem.addComponentAsFirst(new Icon(VaadinIcon.FILE_TEXT));
+
+        MenuItem myExportsItem = exportMenuItem.getSubMenu().addItem("My exports", e -> createExportsDialog().open());
+        myExportsItem.addComponentAsFirst(new Icon(VaadinIcon.ARCHIVE));
+
         // Apply some styling to make it look more like a button
         exportMenu.getStyle()
                 .set("border", "1px solid var(--lumo-contrast-20pct)")
                 .set("border-radius", "var(--lumo-border-radius-m)")
                 .set("padding", "var(--lumo-space-xs) var(--lumo-space-s)");
 
-        buttonLayout.add(addButton, removeButton, exportMenu);
+        Button importButton = createActionButton("Import", VaadinIcon.UPLOAD);
+        importButton.addClickListener(event -> createImportDialog().open());
+
+        buttonLayout.add(addButton, removeButton, importButton, exportMenu);
         content.add(buttonLayout);
     }
 
+    private void initializeFilterBar(VerticalLayout content) {
+        HorizontalLayout filterLayout = new HorizontalLayout();
+        filterLayout.addClassNames(LumoUtility.Padding.Horizontal.LARGE, LumoUtility.Padding.Vertical.XSMALL);
+        filterLayout.setWidthFull();
+        filterLayout.setAlignItems(FlexComponent.Alignment.BASELINE);
+
+        TextField searchField = new TextField();
+        searchField.setPlaceholder("Search title and body");
+        searchField.setPrefixComponent(new Icon(VaadinIcon.SEARCH));
+        searchField.setClearButtonVisible(true);
+        // One search once typing pauses rather than one per keystroke
+        searchField.setValueChangeMode(ValueChangeMode.TIMEOUT);
+        searchField.setValueChangeTimeout(300);
+
+        TextField authorFilter = new TextField();
+        authorFilter.setPlaceholder("Author");
+        authorFilter.setClearButtonVisible(true);
+        authorFilter.setValueChangeMode(ValueChangeMode.LAZY);
+
+        TextField titleFilter = new TextField();
+        titleFilter.setPlaceholder("Title starts with");
+        titleFilter.setClearButtonVisible(true);
+        titleFilter.setValueChangeMode(ValueChangeMode.LAZY);
+
+        DatePicker createdFromFilter = new DatePicker();
+        createdFromFilter.setPlaceholder("Created from");
+        createdFromFilter.setClearButtonVisible(true);
+
+        DatePicker createdToFilter = new DatePicker();
+        createdToFilter.setPlaceholder("Created to");
+        createdToFilter.setClearButtonVisible(true);
+
+        Runnable applyFilter = () -> {
+            LocalDate from = createdFromFilter.getValue();
+            LocalDate to = createdToFilter.getValue();
+            filter = TodoFilter.builder()
+                    .author(authorFilter.getValue().trim())
+                    .titlePrefix(titleFilter.getValue().trim())
+                    .createdFrom(from == null ? null : from.atStartOfDay())
+                    .createdTo(to == null ? null : to.plusDays(1).atStartOfDay())
+                    .build();
+            getUI().ifPresent(this::subscribe);
+            refreshGrid();
+        };
+        authorFilter.addValueChangeListener(e -> applyFilter.run());
+        titleFilter.addValueChangeListener(e -> applyFilter.run());
+        createdFromFilter.addValueChangeListener(e -> applyFilter.run());
+        createdToFilter.addValueChangeListener(e -> applyFilter.run());
+        searchField.addValueChangeListener(e -> {
+            searchText = e.getValue();
+            // Search results are ranked over all todos, so the filters do not apply to them
+            boolean searching = StringUtils.hasText(searchText);
+            authorFilter.setEnabled(!searching);
+            titleFilter.setEnabled(!searching);
+            createdFromFilter.setEnabled(!searching);
+            createdToFilter.setEnabled(!searching);
+            getUI().ifPresent(this::subscribe);
+            refreshGrid();
+        });
+
+        filterLayout.add(searchField, authorFilter, titleFilter, createdFromFilter, createdToFilter);
+        content.add(filterLayout);
+    }
+
     private Button createActionButton(String text, VaadinIcon icon, ButtonVariant... variants) {
         Button button = new Button(text, new Icon(icon));
         button.addThemeVariants(variants);
@@ -162,14 +310,15 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         todoGrid.addThemeVariants(GridVariant.LUMO_ROW_STRIPES, GridVariant.LUMO_WRAP_CELL_CONTENT);
 
         todoGrid.setSelectionMode(Grid.SelectionMode.MULTI);
-        todoGrid.addColumn(Todo::getTitle).setHeader("Title").setAutoWidth(true).setFlexGrow(1);
+        todoGrid.addColumn(Todo::getTitle).setHeader("Title").setSortProperty("title").setAutoWidth(true).setFlexGrow(1);
         todoGrid.addColumn(Todo::getBody).setHeader("Body").setAutoWidth(true).setFlexGrow(2);
-        todoGrid.addColumn(Todo::getAuthor).setHeader("Author").setAutoWidth(true);
-        todoGrid.addColumn(Todo::getCreatedAt).setHeader("Created At").setAutoWidth(true);
+        todoGrid.addColumn(Todo::getAuthor).setHeader("Author").setSortProperty("author").setAutoWidth(true);
+        todoGrid.addColumn(Todo::getCreatedAt).setHeader("Created At").setSortProperty("createdAt").setAutoWidth(true);
 
         todoGrid.setHeight("50vh");
 
-        refreshGrid();
+        // Only the visible window is fetched; selection is tracked by id so it survives re-fetches
+        todoGrid.setItems(this::fetchTodos).setIdentifierProvider(Todo::getId);
         content.add(todoGrid);
     }
 
@@ -185,25 +334,41 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
 
         var upload = getUpload();
 
-        fileLayout = new VerticalLayout();
-        fileLayout.setSpacing(false);
-        refreshFileLayout();
+        attachmentGrid = new Grid<>();
+        attachmentGrid.addComponentColumn(this::createAttachmentComponent).setHeader("File").setFlexGrow(1);
+        attachmentGrid.addColumn(attachment -> formatSize(attachment.getLength())).setHeader("Size").setAutoWidth(true);
+        attachmentGrid.addColumn(Attachment::getUploadDate).setHeader("Uploaded").setAutoWidth(true);
+        attachmentGrid.setHeight("30vh");
+        // Pages come from the shared attachment metadata cache rather than from GridFS
+        attachmentGrid.setItems(query -> attachmentService.getAttachments(query.getOffset(), query.getLimit()).stream())
+                .setIdentifierProvider(Attachment::getId);
 
         Button clearFilesButton = new Button("Clear All Files", VaadinIcon.CLOSE.create());
         clearFilesButton.addThemeVariants(ButtonVariant.LUMO_SMALL, ButtonVariant.LUMO_ERROR);
         clearFilesButton.addClickListener(e -> clearAllFiles());
 
-        fileSection.add(fileUploadTitle, upload, fileLayout, clearFilesButton);
+        fileSection.add(fileUploadTitle, upload, attachmentGrid, clearFilesButton);
         content.add(fileSection);
     }
 
     private Upload getUpload() {
-        MultiFileMemoryBuffer buffer = new MultiFileMemoryBuffer();
-        Upload upload = new Upload(buffer);
+        // Uploads still being received: stored once they succeed, discarded if they fail. Vaadin receives a
+        // file and fires its succeeded or failed event on one request thread, so the thread tells concurrent
+        // uploads apart even when they have the same name
+        Map<Thread, AttachmentUpload> uploads = new ConcurrentHashMap<>();
+        Upload upload = new Upload((MultiFileReceiver) (fileName, mimeType) -> {
+            AttachmentUpload attachmentUpload = attachmentService.openUpload(fileName, mimeType);
+            uploads.put(Thread.currentThread(), attachmentUpload);
+            return attachmentUpload;
+        });
         upload.setAcceptedFileTypes("application/pdf", "image/jpeg", "image/png");
         upload.setMaxFileSize(10 * 1024 * 1024); // Set max file size to 10MB
-        upload.addSucceededListener(event -> handleFileUpload(buffer, event));
+        upload.addSucceededListener(event -> handleFileUpload(uploads.remove(Thread.currentThread()), event));
         upload.addFailedListener(event -> {
+            AttachmentUpload failed = uploads.remove(Thread.currentThread());
+            if (failed != null) {
+                attachmentService.discard(failed);
+            }
             String errorMessage = event.getReason().getMessage();
             showNotification("Upload failed: " + errorMessage, NotificationVariant.LUMO_ERROR);
             // Log the error
@@ -213,32 +378,111 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
     }
 
     private void clearAllFiles() {
-        todoService.deleteAllFiles();
-        refreshFileLayout();
+        attachmentService.deleteAll();
+        refreshAttachments();
         showNotification("All files cleared", NotificationVariant.LUMO_SUCCESS);
     }
 
     private void initializeBroadcastListener(AttachEvent attachEvent) {
-        var ui = attachEvent.getUI();
-        broadcastRegistration = Broadcastor.register((message) -> {
+        subscribe(attachEvent.getUI());
+    }
+
+    // Only sessions that can see a todo get its events: a grid filtered by author listens to that author only
+    private void subscribe(UI ui) {
+        String topic = !StringUtils.hasText(searchText) && StringUtils.hasText(filter.getAuthor())
+                ? Broadcastor.authorTopic(filter.getAuthor())
+                : Broadcastor.GLOBAL_TOPIC;
+        if (topic.equals(broadcastTopic)) {
+            return;
+        }
+        if (broadcastRegistration != null) {
+            broadcastRegistration.remove();
+        }
+        broadcastTopic = topic;
+        broadcastRegistration = broadcastor.register(topic, events -> {
             if (ui.isAttached()) {
-                ui.access(() -> {
-                    refreshGrid();
-                    showNotification(message, NotificationVariant.LUMO_SUCCESS);
-                });
+                ui.access(() -> applyChanges(events));
             }
         });
     }
 
+    private void applyChanges(List<TodoChangeEvent> events) {
+        boolean reload = false;
+        for (TodoChangeEvent event : events) {
+            switch (event.getType()) {
+                case UPDATED -> {
+                    if (event.getPreviousAuthor() != null && event.getPreviousAuthor().equals(filter.getAuthor())) {
+                        // The todo moved to another author, so its row has to go
+                        reload = true;
+                    } else {
+                        todoGrid.getLazyDataView().refreshItem(event.getTodo());
+                    }
+                }
+                case DELETED -> {
+                    event.getTodoIds().forEach(id -> todoGrid.deselect(Todo.builder().id(id).build()));
+                    reload = true;
+                }
+                // A lazy grid cannot splice rows in, so creations re-fetch the visible window only
+                default -> reload = true;
+            }
+        }
+        if (reload) {
+            refreshGrid();
+        }
+    }
+
+    private Stream<Todo> fetchTodos(Query<Todo, Void> query) {
+        if (StringUtils.hasText(searchText)) {
+            return todoService.searchTodos(searchText, PageRequest.of(query.getPage(), query.getPageSize())).stream();
+        }
+        Sort sort = VaadinSpringDataHelpers.toSpringDataSort(query);
+        if (sort.isUnsorted()) {
+            sort = DEFAULT_SORT;
+        }
+        return todoService.getTodos(filter, PageRequest.of(query.getPage(), query.getPageSize(), sort)).stream();
+    }
+
     private void refreshGrid() {
-        todoGrid.setItems(todoService.getAllTodos());
+        todoGrid.getDataProvider().refreshAll();
+    }
+
+    private void refreshAttachments() {
+        attachmentGrid.getDataProvider().refreshAll();
     }
 
-    private void refreshFileLayout() {
-        fileLayout.removeAll();
-        for (GridFSFile file : todoService.getAllFiles()) {
-            fileLayout.add(createFileComponent(file));
+    private HorizontalLayout createAttachmentComponent(Attachment attachment) {
+        HorizontalLayout layout = new HorizontalLayout();
+        layout.setAlignItems(FlexComponent.Alignment.CENTER);
+
+        Component fileIcon;
+        if (ThumbnailService.isSupported(attachment.getContentType())) {
+            Image thumbnail = new Image("api/attachments/" + attachment.getId() + "/thumbnail", attachment.getFilename());
+            thumbnail.setWidth("48px");
+            thumbnail.setHeight("48px");
+            thumbnail.getStyle().set("object-fit", "contain");
+            fileIcon = thumbnail;
+        } else {
+            Icon icon = VaadinIcon.FILE_O.create();
+            icon.setColor("var(--lumo-primary-color)");
+            fileIcon = icon;
         }
+
+        Span filename = new Span(attachment.getFilename());
+        filename.addClassNames(LumoUtility.FontWeight.MEDIUM);
+
+        Button downloadButton = new Button(new Icon(VaadinIcon.DOWNLOAD));
+        downloadButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+        downloadButton.addClickListener(event -> downloadFile(attachment.getId()));
+
+        layout.add(fileIcon, filename, downloadButton);
+        return layout;
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        return bytes < 1024 * 1024 ? bytes / 1024 + " KB" : String.format("%.1f MB", bytes / (1024.0 * 1024));
     }
 
     private HorizontalLayout createFileComponent(GridFSFile file) {
@@ -253,34 +497,30 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
 
         Button downloadButton = new Button(new Icon(VaadinIcon.DOWNLOAD));
         downloadButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
-        downloadButton.addClickListener(event -> downloadFile(file));
+        downloadButton.addClickListener(event -> downloadFile(file.getObjectId().toHexString()));
 
         layout.add(fileIcon, filename, downloadButton);
         return layout;
     }
 
-    private void handleFileUpload(MultiFileMemoryBuffer buffer, SucceededEvent event) {
+    private void handleFileUpload(AttachmentUpload attachmentUpload, SucceededEvent event) {
         try {
-            InputStream inputStream = new ByteArrayInputStream(buffer.getInputStream(event.getFileName()).readAllBytes());
-            gridFsTemplate.store(inputStream, event.getFileName(), event.getMIMEType());
-            showNotification("File uploaded successfully", NotificationVariant.LUMO_SUCCESS);
-            refreshFileLayout();
-        } catch (Exception e) {
-            showNotification("Error uploading file: " + e.getMessage(), NotificationVariant.LUMO_ERROR);
+            attachmentService.store(attachmentUpload);
+        } catch (IOException | RuntimeException e) {
+            attachmentService.discard(attachmentUpload);
+            logger.error("Could not store upload {}", event.getFileName(), e);
+            showNotification("Upload failed: " + e.getMessage(), NotificationVariant.LUMO_ERROR);
+            return;
         }
+        logger.info("Stored {} ({} bytes, sha256 {})", event.getFileName(), attachmentUpload.getLength(),
+                attachmentUpload.getSha256());
+        showNotification("File uploaded successfully", NotificationVariant.LUMO_SUCCESS);
+        refreshAttachments();
     }
 
-    private void downloadFile(GridFSFile file) {
-        StreamResource resource = new StreamResource(file.getFilename(), () -> {
-            try {
-                return gridFsTemplate.getResource(file).getInputStream();
-            } catch (IOException e) {
-                showNotification("Error downloading file: " + e.getMessage(), NotificationVariant.LUMO_ERROR);
-                return null;
-            }
-        });
-        StreamRegistration registration = VaadinSession.getCurrent().getResourceRegistry().registerResource(resource);
-        getUI().ifPresent(ui -> ui.getPage().open(registration.getResourceUri().toString(), "_blank"));
+    private void downloadFile(String fileId) {
+        // Served by AttachmentController, which supports ranges and caching unlike a StreamResource
+        getUI().ifPresent(ui -> ui.getPage().open("api/attachments/" + fileId, "_blank"));
     }
 
     private void removeSelectedItems() {
@@ -288,11 +528,8 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         if (selectedTodos.isEmpty()) {
             showNotification("Please select at least one item to remove", NotificationVariant.LUMO_CONTRAST);
         } else {
-            for (Todo todo : selectedTodos) {
-                todoService.deleteTodo(todo);
-            }
-            refreshGrid();
-            //Broadcastor.broadcast("Removed " + selectedTodos.size() + " Todo item(s) by: " + author);
+            todoService.deleteTodos(selectedTodos.stream().map(Todo::getId).toList());
+            todoGrid.deselectAll();
             showNotification(selectedTodos.size() + " item(s) removed successfully", NotificationVariant.LUMO_SUCCESS);
         }
     }
@@ -303,7 +540,7 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
             showNotification("Please select at least one item to export", NotificationVariant.LUMO_CONTRAST);
         } else {
             try {
-                StreamResource resource = excelGenerator.createExcelResource(selectedTodos);
+                StreamResource resource = exportCache.createResource(ExportFormat.EXCEL, selectedTodos, excelGenerator::writeExcel);
                 StreamRegistration registration = VaadinSession.getCurrent().getResourceRegistry().registerResource(resource);
                 getUI().ifPresent(ui -> ui.getPage().open(registration.getResourceUri().toString(), "_blank"));
             } catch (Exception e) {
@@ -312,13 +549,155 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
         }
     }
 
+    // Whole-query exports run as background jobs; progress is pushed to this UI while it is open
+    private void exportFiltered(ExportFormat format) {
+        UI ui = UI.getCurrent();
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setWidth("15em");
+        Span status = new Span("Export queued");
+        HorizontalLayout actions = new HorizontalLayout();
+
+        Notification notification = new Notification(new VerticalLayout(status, progressBar, actions));
+        notification.setPosition(Notification.Position.BOTTOM_END);
+        try {
+            exportJobService.submit(author, format, filter, job -> ui.access(() ->
+                    showExportProgress(job, notification, progressBar, status, actions)));
+            notification.open();
+        } catch (RejectedExecutionException e) {
+            showNotification(e.getMessage(), NotificationVariant.LUMO_CONTRAST);
+        }
+    }
+
+    private void showExportProgress(ExportJob job, Notification notification, ProgressBar progressBar, Span status,
+                                    HorizontalLayout actions) {
+        switch (job.getStatus()) {
+            case RUNNING -> {
+                progressBar.setValue(job.getProgress());
+                status.setText("Exporting " + job.getRowsWritten() + " of " + job.getTotalRows() + " rows");
+            }
+            case DONE -> {
+                progressBar.setValue(1);
+                status.setText(job.getFileName() + " is ready");
+                Button downloadButton = new Button("Download", new Icon(VaadinIcon.DOWNLOAD), e -> {
+                    downloadStoredFile(job.getResultFileId());
+                    notification.close();
+                });
+                downloadButton.addThemeVariants(ButtonVariant.LUMO_PRIMARY, ButtonVariant.LUMO_SMALL);
+                Button closeButton = new Button("Close", e -> notification.close());
+                closeButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+                actions.removeAll();
+                actions.add(downloadButton, closeButton);
+            }
+            case FAILED -> {
+                notification.close();
+                showNotification("Export failed: " + job.getError(), NotificationVariant.LUMO_ERROR);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private Dialog createImportDialog() {
+        Dialog dialog = new Dialog();
+        dialog.setHeaderTitle("Import Todos");
+
+        // The file goes to a temporary file, which the import reads as a stream and deletes afterwards
+        FileBuffer buffer = new FileBuffer();
+        Upload upload = new Upload(buffer);
+        upload.setAcceptedFileTypes(".xlsx", ".csv");
+        upload.addSucceededListener(event -> {
+            dialog.close();
+            importFile(buffer.getFileData().getFile().toPath(), event.getFileName());
+        });
+        upload.addFailedListener(event -> showNotification("Upload failed: " + event.getReason().getMessage(),
+                NotificationVariant.LUMO_ERROR));
+
+        Span hint = new Span("An Excel or CSV file with a Title column and optionally Body, Author and Created At");
+        hint.addClassNames(LumoUtility.TextColor.SECONDARY, LumoUtility.FontSize.SMALL);
+
+        Button closeButton = new Button("Cancel", e -> dialog.close());
+        closeButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        dialog.getFooter().add(closeButton);
+        dialog.add(new VerticalLayout(hint, upload));
+        return dialog;
+    }
+
+    private void importFile(Path file, String fileName) {
+        UI ui = UI.getCurrent();
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setWidth("15em");
+        Span status = new Span("Import queued");
+
+        Notification notification = new Notification(new VerticalLayout(status, progressBar));
+        notification.setPosition(Notification.Position.BOTTOM_END);
+        try {
+            todoImportService.submit(author, file, fileName, job -> ui.access(() ->
+                    showImportProgress(job, notification, status)));
+            notification.open();
+        } catch (RejectedExecutionException e) {
+            showNotification(e.getMessage(), NotificationVariant.LUMO_CONTRAST);
+        }
+    }
+
+    private void showImportProgress(ImportJob job, Notification notification, Span status) {
+        switch (job.getStatus()) {
+            case RUNNING -> status.setText("Importing " + job.getFileName() + ": " + job.getRowsRead() + " rows read");
+            case DONE -> {
+                notification.close();
+                showNotification(job.getRowsImported() + " todos imported"
+                                + (job.getRowsFailed() > 0 ? ", " + job.getRowsFailed() + " rows skipped" : ""),
+                        job.getRowsFailed() > 0 ? NotificationVariant.LUMO_CONTRAST : NotificationVariant.LUMO_SUCCESS);
+                job.getErrors().forEach(error -> logger.info("Import {} row {}: {}", job.getId(), error.getRow(), error.getMessage()));
+            }
+            case FAILED -> {
+                notification.close();
+                showNotification("Import failed: " + job.getError(), NotificationVariant.LUMO_ERROR);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private Dialog createExportsDialog() {
+        Dialog dialog = new Dialog();
+        dialog.setHeaderTitle("My Exports");
+
+        VerticalLayout exportsLayout = new VerticalLayout();
+        exportsLayout.setPadding(false);
+        exportsLayout.setSpacing(false);
+        List<GridFSFile> exports = exportJobService.getExports(author);
+        if (exports.isEmpty()) {
+            exportsLayout.add(new Span("No exports yet"));
+        }
+        for (GridFSFile file : exports) {
+            exportsLayout.add(createFileComponent(file));
+        }
+
+        Button closeButton = new Button("Close", e -> dialog.close());
+        closeButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        dialog.getFooter().add(closeButton);
+        dialog.add(exportsLayout);
+        return dialog;
+    }
+
+    private void downloadStoredFile(String fileId) {
+        GridFSFile file = gridFsTemplate.findOne(org.springframework.data.mongodb.core.query.Query.query(
+                Criteria.where("_id").is(new ObjectId(fileId))));
+        if (file == null) {
+            showNotification("The file is no longer available", NotificationVariant.LUMO_CONTRAST);
+        } else {
+            downloadFile(fileId);
+        }
+    }
+
     private void exportToPdf() {
         Set<Todo> selectedTodos = todoGrid.getSelectedItems();
         if (selectedTodos.isEmpty()) {
             showNotification("Please select at least one item to export", NotificationVariant.LUMO_CONTRAST);
         } else {
             try {
-                StreamResource resource = createPdfResource(selectedTodos);
+                StreamResource resource = exportCache.createResource(ExportFormat.PDF, selectedTodos, PdfGenerator::writePdf);
                 StreamRegistration registration = VaadinSession.getCurrent().getResourceRegistry().registerResource(resource);
                 getUI().ifPresent(ui -> ui.getPage().open(registration.getResourceUri().toString(), "_blank"));
             } catch (Exception e) {
@@ -368,11 +747,16 @@ public class TodoUI extends VerticalLayout implements HasUrlParameter<String> {
                     .author(author)
                     .createdAt(LocalDateTime.now())
                     .build();
-            todoService.saveTodo(todo);
-           // Broadcastor.broadcast("Todo Item added by: " + author);
-            refreshGrid();
+            UI ui = UI.getCurrent();
             dialog.close();
-            showNotification("Todo item added successfully", NotificationVariant.LUMO_SUCCESS);
+            // Returns right away when saves are written behind; the grid updates from the change event
+            todoService.saveTodoAsync(todo).whenComplete((saved, error) -> ui.access(() -> {
+                if (error == null) {
+                    showNotification("Todo item added successfully", NotificationVariant.LUMO_SUCCESS);
+                } else {
+                    showNotification("Could not save the todo: " + error.getMessage(), NotificationVariant.LUMO_ERROR);
+                }
+            }));
         }
     }
 
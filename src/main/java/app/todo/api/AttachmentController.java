@@ -0,0 +1,62 @@
+package app.todo.api;
+
+import app.todo.service.AttachmentResource;
+import app.todo.service.AttachmentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Serves stored attachments and exports. Spring MVC answers conditional requests from the ETag and
+ * Last-Modified headers with 304, and Range requests on the returned resource with 206 (multipart/byteranges
+ * for several ranges), taking Content-Length from the resource.
+ */
+@RestController
+@RequestMapping("/api/attachments")
+public class AttachmentController {
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @GetMapping("/{id}")
+    public ResponseEntity<Resource> download(@PathVariable String id) {
+        AttachmentResource resource = attachmentService.getResource(id);
+        if (resource == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No attachment " + id);
+        }
+        String contentType = resource.getContentType();
+        return ResponseEntity.ok()
+                .contentType(contentType != null ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM)
+                .eTag(resource.getETag())
+                .lastModified(resource.lastModified())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline()
+                        .filename(resource.getFilename(), StandardCharsets.UTF_8).build().toString())
+                .body(resource);
+    }
+
+    @GetMapping("/{id}/thumbnail")
+    public ResponseEntity<byte[]> thumbnail(@PathVariable String id) {
+        byte[] thumbnail = attachmentService.getThumbnail(id);
+        if (thumbnail == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No thumbnail for " + id);
+        }
+        // Attachments never change their content, so neither does the thumbnail
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(1)))
+                .body(thumbnail);
+    }
+}
@@ -0,0 +1,193 @@
+package app.todo.api;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import app.todo.service.TodoService;
+import app.todo.service.TransferMeter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bulk export for reporting jobs. Rows are streamed from a Mongo cursor to the response, so memory use does
+ * not depend on how many todos there are.
+ */
+@RestController
+@RequestMapping("/api/todos")
+public class TodoExportController {
+
+    private static final Sort OLDEST_FIRST = Sort.by(Sort.Direction.ASC, "createdAt");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String[] CSV_HEADERS = {"id", "title", "body", "author", "userId", "createdAt"};
+
+    enum Format {
+        CSV("csv", new MediaType("text", "csv", StandardCharsets.UTF_8)),
+        NDJSON("ndjson", MediaType.APPLICATION_NDJSON);
+
+        private final String extension;
+        private final MediaType mediaType;
+
+        Format(String extension, MediaType mediaType) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+    }
+
+    @Autowired
+    private TodoService todoService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<Format, TransferMeter> exportMeters = new EnumMap<>(Format.class);
+
+    @PostConstruct
+    void registerMetrics() {
+        for (Format format : Format.values()) {
+            exportMeters.put(format, new TransferMeter(meterRegistry, "todo.export",
+                    "format", format.extension, "source", "api"));
+        }
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+            @RequestParam(required = false) Boolean gzip,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        Format exportFormat = parseFormat(format);
+        boolean compress = gzip != null ? gzip : acceptEncoding != null && acceptEncoding.contains("gzip");
+        TodoFilter filter = TodoFilter.builder().createdFrom(since).build();
+
+        StreamingResponseBody body = out -> {
+            long startedAt = System.nanoTime();
+            CountingOutputStream counted = new CountingOutputStream(out);
+            OutputStream target = compress ? new GZIPOutputStream(counted, BUFFER_SIZE) : new BufferedOutputStream(counted, BUFFER_SIZE);
+            try (Stream<Todo> todos = todoService.streamTodos(filter, OLDEST_FIRST)) {
+                if (exportFormat == Format.CSV) {
+                    writeCsv(todos, target);
+                } else {
+                    writeNdjson(todos, target);
+                }
+            }
+            if (target instanceof GZIPOutputStream gzipStream) {
+                gzipStream.finish();
+            }
+            target.flush();
+            exportMeters.get(exportFormat).record(counted.count, startedAt);
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(exportFormat.mediaType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("todos." + exportFormat.extension + (compress && gzip != null ? ".gz" : ""))
+                        .build().toString());
+        if (compress && gzip == null) {
+            // Negotiated compression is transparent to the client; an explicit gzip=true downloads a .gz file
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    private static Format parseFormat(String format) {
+        try {
+            return Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported format: " + format);
+        }
+    }
+
+    private static void writeCsv(Stream<Todo> todos, OutputStream out) throws IOException {
+        writeCsvRow(out, CSV_HEADERS);
+        for (Iterator<Todo> it = todos.iterator(); it.hasNext(); ) {
+            Todo todo = it.next();
+            writeCsvRow(out, todo.getId(), todo.getTitle(), todo.getBody(), todo.getAuthor(), todo.getUserId(),
+                    todo.getCreatedAt() == null ? null : todo.getCreatedAt().toString());
+        }
+    }
+
+    private static void writeCsvRow(OutputStream out, String... fields) throws IOException {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            appendCsvField(row, fields[i]);
+        }
+        row.append("\r\n");
+        out.write(row.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // RFC 4180: quote fields containing separators, quotes or line breaks and double embedded quotes
+    private static void appendCsvField(StringBuilder row, String field) {
+        if (field == null) {
+            return;
+        }
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            row.append(field);
+            return;
+        }
+        row.append('"').append(field.replace("\"", "\"\"")).append('"');
+    }
+
+    private void writeNdjson(Stream<Todo> todos, OutputStream out) throws IOException {
+        for (Iterator<Todo> it = todos.iterator(); it.hasNext(); ) {
+            out.write(objectMapper.writeValueAsBytes(it.next()));
+            out.write('\n');
+        }
+    }
+
+    // Bytes as sent, after compression
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
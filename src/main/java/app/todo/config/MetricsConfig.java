@@ -0,0 +1,21 @@
+package app.todo.config;
+
+import app.todo.TodoUI;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Meters that belong to no single service. The services register their own.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder todoUiMetrics() {
+        return registry -> Gauge.builder("todo.ui.sessions", TodoUI::getActiveSessions)
+                .description("Todo views attached to a browser tab")
+                .register(registry);
+    }
+}
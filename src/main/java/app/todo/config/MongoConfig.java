@@ -1,16 +1,66 @@
 package app.todo.config;
 
+import app.todo.model.Attachment;
+import app.todo.model.Todo;
+import app.todo.model.User;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.util.List;
+
 @Configuration
 public class MongoConfig {
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @Bean
     public GridFsTemplate gridFsTemplate(MongoTemplate mongoTemplate) {
         return new GridFsTemplate(mongoTemplate.getMongoDatabaseFactory(), mongoTemplate.getConverter());
     }
-}
 
+    // Same default "fs" bucket as the template, for writing uploads through a stream
+    @Bean
+    public GridFSBucket gridFSBucket(MongoTemplate mongoTemplate) {
+        return GridFSBuckets.create(mongoTemplate.getDb());
+    }
+
+    // Indexes declared on the entities are created here rather than through auto-index-creation,
+    // together with the GridFS ones that cannot be declared on an entity
+    @EventListener(ContextRefreshedEvent.class)
+    public void ensureIndexes() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        for (Class<?> type : List.of(Todo.class, User.class, Attachment.class)) {
+            IndexOperations indexOps = mongoTemplate.indexOps(type);
+            resolver.resolveIndexFor(type).forEach(indexOps::ensureIndex);
+        }
+        IndexOperations filesIndexOps = mongoTemplate.indexOps("fs.files");
+        filesIndexOps.ensureIndex(new Index().on("filename", Sort.Direction.ASC).on("uploadDate", Sort.Direction.ASC));
+        // Content addressing: one stored file per SHA-256; exports carry no hash and are left out
+        filesIndexOps.ensureIndex(new Index().on("metadata.sha256", Sort.Direction.ASC).unique()
+                .partial(PartialIndexFilter.of(Criteria.where("metadata.sha256").exists(true))));
+    }
+
+    // Todos stored before they were versioned would look new to save() and be inserted a second time
+    @EventListener(ContextRefreshedEvent.class)
+    public void backfillVersions() {
+        mongoTemplate.updateMulti(Query.query(Criteria.where("version").exists(false)), Update.update("version", 0L),
+                Todo.class);
+    }
+}
@@ -0,0 +1,30 @@
+package app.todo.model;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.IndexDirection;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * An uploaded file as the user sees it. The content is a GridFS file shared by every attachment with the same
+ * SHA-256, which counts its references in {@code metadata.refCount}.
+ */
+@Data
+@Builder
+@Document(collection = "attachments")
+public class Attachment {
+
+    @Id
+    private String id;
+    private String filename;
+    private String contentType;
+    private long length;
+    @Indexed(direction = IndexDirection.DESCENDING)
+    private LocalDateTime uploadDate;
+    private String sha256;
+    private String blobId;
+}
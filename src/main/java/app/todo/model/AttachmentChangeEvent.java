@@ -0,0 +1,25 @@
+package app.todo.model;
+
+import lombok.Value;
+
+@Value
+public class AttachmentChangeEvent implements BroadcastEvent {
+
+    public enum Type {
+        ADDED,
+        REMOVED
+    }
+
+    Type type;
+    String attachmentId;
+    /** The new attachment, or null if it was removed. */
+    Attachment attachment;
+
+    public static AttachmentChangeEvent added(Attachment attachment) {
+        return new AttachmentChangeEvent(Type.ADDED, attachment.getId(), attachment);
+    }
+
+    public static AttachmentChangeEvent removed(String attachmentId) {
+        return new AttachmentChangeEvent(Type.REMOVED, attachmentId, null);
+    }
+}
@@ -0,0 +1,7 @@
+package app.todo.model;
+
+/**
+ * An event the {@code BroadcastBus} carries between replicas. Receivers pick the kinds they handle.
+ */
+public interface BroadcastEvent {
+}
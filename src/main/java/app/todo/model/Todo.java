@@ -3,20 +3,32 @@ package app.todo.model;
 import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @Document(collection = "todos")
+@CompoundIndexes({
+        @CompoundIndex(name = "userId_createdAt", def = "{'userId': 1, 'createdAt': -1}"),
+        @CompoundIndex(name = "author_createdAt", def = "{'author': 1, 'createdAt': -1}")
+})
 public class Todo {
 
     @Id
     private String id;
+    @Indexed
     private String title;
     private String body;
     private String author;
     private String userId;
+    @Indexed
     private LocalDateTime createdAt;
+    @Version
+    private Long version;
 }
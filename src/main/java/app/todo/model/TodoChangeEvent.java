@@ -0,0 +1,64 @@
+package app.todo.model;
+
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+@Value
+public class TodoChangeEvent implements BroadcastEvent {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        /** Changes were lost or coalesced; the receiver has to reload what it shows. */
+        REFRESH
+    }
+
+    Type type;
+    /** The changed todo, or null for a change of several todos. */
+    String todoId;
+    Todo todo;
+    /** Every changed todo, also for a single change. */
+    List<String> todoIds;
+    /** The author an update took the todo away from, or null if the author stayed the same. */
+    String previousAuthor;
+
+    public static TodoChangeEvent created(Todo todo) {
+        return new TodoChangeEvent(Type.CREATED, todo.getId(), todo, List.of(todo.getId()), null);
+    }
+
+    public static TodoChangeEvent created(Collection<Todo> todos) {
+        return new TodoChangeEvent(Type.CREATED, null, null, todos.stream().map(Todo::getId).toList(), null);
+    }
+
+    public static TodoChangeEvent updated(Todo todo) {
+        return new TodoChangeEvent(Type.UPDATED, todo.getId(), todo, List.of(todo.getId()), null);
+    }
+
+    /**
+     * An update of a todo that was stored with the given author before.
+     */
+    public static TodoChangeEvent updated(Todo todo, String storedAuthor) {
+        return new TodoChangeEvent(Type.UPDATED, todo.getId(), todo, List.of(todo.getId()),
+                Objects.equals(storedAuthor, todo.getAuthor()) ? null : storedAuthor);
+    }
+
+    public static TodoChangeEvent deleted(Todo todo) {
+        return new TodoChangeEvent(Type.DELETED, todo.getId(), todo, List.of(todo.getId()), null);
+    }
+
+    public static TodoChangeEvent deleted(String todoId) {
+        return new TodoChangeEvent(Type.DELETED, todoId, null, List.of(todoId), null);
+    }
+
+    public static TodoChangeEvent deleted(Collection<String> todoIds) {
+        return new TodoChangeEvent(Type.DELETED, null, null, List.copyOf(todoIds), null);
+    }
+
+    public static TodoChangeEvent refresh() {
+        return new TodoChangeEvent(Type.REFRESH, null, null, List.of(), null);
+    }
+}
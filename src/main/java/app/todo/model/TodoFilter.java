@@ -0,0 +1,40 @@
+package app.todo.model;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class TodoFilter {
+
+    private String author;
+    private String titlePrefix;
+    private LocalDateTime createdFrom;
+    private LocalDateTime createdTo; // exclusive
+
+    public static TodoFilter empty() {
+        return TodoFilter.builder().build();
+    }
+
+    /**
+     * Tells whether the todo is one the filter's query would return.
+     */
+    public boolean matches(Todo todo) {
+        if (StringUtils.hasText(author) && !author.equals(todo.getAuthor())) {
+            return false;
+        }
+        if (StringUtils.hasText(titlePrefix) && (todo.getTitle() == null || !todo.getTitle().startsWith(titlePrefix))) {
+            return false;
+        }
+        if (createdFrom == null && createdTo == null) {
+            return true;
+        }
+        LocalDateTime createdAt = todo.getCreatedAt();
+        return createdAt != null
+                && (createdFrom == null || !createdAt.isBefore(createdFrom))
+                && (createdTo == null || createdAt.isBefore(createdTo));
+    }
+}
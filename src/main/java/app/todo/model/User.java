@@ -3,6 +3,7 @@ package app.todo.model;
 import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "users")
@@ -11,8 +12,9 @@ import org.springframework.data.mongodb.core.mapping.Document;
 public class User {
     @Id
     private String id;
+    @Indexed(unique = true)
     private String username;
     private String password; // In a real application, this should be hashed
 
     // Getters, setters, and constructors
-}
\ No newline at end of file
+}
@@ -1,33 +1,437 @@
 package app.todo.repo;
 
 import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+/**
+ * Keeps todos in memory, for deployments and tests that run without Mongo. Todos are held by id, with an
+ * index by user and one ordered by creation time that serves date ranges and the default newest-first
+ * paging without sorting. Reads never block; writes to the same todo are serialized. The store holds its
+ * own copies, so callers may change the todos they get back.
+ * <p>
+ * With {@code todo.store.dir} set the store survives restarts: every change goes to a {@link TodoLog} before
+ * the save returns, and periodic {@link TodoSnapshot}s keep replay short.
+ */
 @Repository
-public class InMemoryRepository {
+@Profile("in-memory")
+public class InMemoryRepository implements TodoStore {
 
-    private final List<Todo> items = new ArrayList<>();
+    private record CreatedKey(LocalDateTime createdAt, String id) implements Comparable<CreatedKey> {
 
+        private static final Comparator<CreatedKey> ORDER = Comparator
+                .comparing(CreatedKey::createdAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(CreatedKey::id);
+
+        private static CreatedKey of(Todo todo) {
+            return new CreatedKey(todo.getCreatedAt(), todo.getId());
+        }
+
+        // Sorts before every todo created at that time
+        private static CreatedKey lowerBound(LocalDateTime createdAt) {
+            return new CreatedKey(createdAt, "");
+        }
+
+        @Override
+        public int compareTo(CreatedKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryRepository.class);
+    private static final long NOT_APPLIED = -1;
+
+    private final ConcurrentHashMap<String, Todo> todos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> idsByUserId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<CreatedKey, Todo> todosByCreatedAt = new ConcurrentSkipListMap<>();
+
+    private final Path dir;
+    private final long fsyncMillis;
+    private final int segmentBytes;
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // Set once recovery is done; until then and without a directory nothing is logged
+    private volatile TodoLog log;
+    private long snapshotSequence;
+
+    /**
+     * A store that lives in memory only.
+     */
+    public InMemoryRepository() {
+        this("", 0, 0);
+    }
+
+    @Autowired
+    public InMemoryRepository(@Value("${todo.store.dir:}") String dir,
+                              @Value("${todo.store.log.fsync-ms:2}") long fsyncMillis,
+                              @Value("${todo.store.log.segment-bytes:67108864}") int segmentBytes) {
+        this.dir = StringUtils.hasText(dir) ? Path.of(dir) : null;
+        this.fsyncMillis = fsyncMillis;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * With a directory configured, loads the newest snapshot and replays the log written since, both in
+     * parallel, and logs every change from then on.
+     */
     @PostConstruct
-    void setup() {
-       addItems(Todo.builder().title("Running").body("Get Going").author("Admin").createdAt(LocalDateTime.now()).build());
-       addItems(Todo.builder().title("Learning").body("Learn something new").author("Admin").createdAt(LocalDateTime.now()).build());
-       addItems(Todo.builder().title("Walking").body("Get Going").author("Admin").createdAt(LocalDateTime.now()).build());
-       addItems(Todo.builder().title("Eating").body("Learn something new").author("Admin").createdAt(LocalDateTime.now()).build());
-       addItems(Todo.builder().title("Drinking").body("Get Going").author("Admin").createdAt(LocalDateTime.now()).build());
-       addItems(Todo.builder().title("Diving").body("Learn something new").author("Admin").createdAt(LocalDateTime.now()).build());
+    public synchronized void open() throws IOException {
+        if (dir == null || log != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        TodoSnapshot.Loaded snapshot = TodoSnapshot.read(dir);
+        snapshot.todos().parallelStream().forEach(this::restore);
+        TodoLog recovered = new TodoLog(dir, segmentBytes, fsyncMillis);
+        Map<String, TodoLog.Entry> tail = recovered.recover(snapshot.sequence());
+        // Only the last record of every todo is left, so the order no longer matters
+        tail.values().parallelStream().forEach(entry -> {
+            if (entry.type() == TodoLog.SAVE) {
+                restore(entry.todo());
+            } else {
+                remove(entry.id());
+            }
+        });
+        snapshotSequence = snapshot.sequence();
+        log = recovered;
+        logger.info("Restored {} todos from {} in {} ms: {} from the snapshot, {} from the log",
+                todos.size(), dir, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                snapshot.todos().size(), tail.size());
+    }
+
+    /**
+     * Writes a snapshot of every todo and drops the log segments it covers. Changes go on meanwhile: one
+     * made after the snapshot's cut may end up in the snapshot as well as in the log, and replaying its
+     * record yields the same todo.
+     */
+    @Scheduled(fixedDelayString = "${todo.store.snapshot-ms:300000}", initialDelayString = "${todo.store.snapshot-ms:300000}")
+    public synchronized void snapshot() {
+        if (log == null) {
+            return;
+        }
+        long sequence;
+        Lock lock = snapshotLock.writeLock();
+        lock.lock();
+        try {
+            sequence = log.getLastSequence();
+        } finally {
+            lock.unlock();
+        }
+        if (sequence == snapshotSequence) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            TodoSnapshot.write(dir, sequence, todos.values());
+            log.truncate(sequence);
+            snapshotSequence = sequence;
+            logger.info("Wrote a snapshot of {} todos up to log record {} in {} ms", todos.size(), sequence,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            logger.error("Could not write a todo snapshot to {}", dir, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            snapshot();
+            log.close();
+            log = null;
+        }
+    }
+
+    @Override
+    public List<Todo> findAll() {
+        return todos.values().stream().map(InMemoryRepository::copy).toList();
+    }
+
+    @Override
+    public List<Todo> findAllById(Collection<String> ids) {
+        return ids.stream().map(todos::get).filter(Objects::nonNull).map(InMemoryRepository::copy).toList();
+    }
+
+    @Override
+    public List<Todo> findByUserId(String userId) {
+        return byUserId(userId).map(InMemoryRepository::copy).toList();
+    }
+
+    @Override
+    public Slice<Todo> findByUserId(String userId, Pageable pageable) {
+        return slice(byUserId(userId).sorted(comparator(pageable.getSort())), pageable);
+    }
+
+    @Override
+    public Slice<Todo> find(TodoFilter filter, Pageable pageable) {
+        return slice(select(filter, pageable.getSort()), pageable);
+    }
+
+    @Override
+    public long count(TodoFilter filter) {
+        if (filter.equals(TodoFilter.empty())) {
+            return todos.size();
+        }
+        return createdIn(filter).values().stream().filter(filter::matches).count();
+    }
+
+    @Override
+    public Stream<Todo> stream(TodoFilter filter, Sort sort) {
+        return select(filter, sort).map(InMemoryRepository::copy);
+    }
+
+    @Override
+    public Todo save(Todo todo) {
+        if (todo.getId() == null) {
+            todo.setId(new ObjectId().toHexString());
+        }
+        long[] sequence = new long[1];
+        Todo stored = write(() -> todos.compute(todo.getId(), (id, current) -> {
+            Todo saved = copy(todo);
+            if (todo.getVersion() == null) {
+                if (current != null) {
+                    throw new DuplicateKeyException("Todo " + id + " already exists");
+                }
+                saved.setVersion(0L);
+            } else if (current == null || !todo.getVersion().equals(current.getVersion())) {
+                throw new OptimisticLockingFailureException("Todo " + id + " with version " + todo.getVersion()
+                        + " has been changed or deleted");
+            } else {
+                saved.setVersion(current.getVersion() + 1);
+            }
+            sequence[0] = journal(TodoLog.SAVE, saved, id);
+            reindex(current, saved);
+            return saved;
+        }));
+        awaitDurable(sequence[0]);
+        todo.setVersion(stored.getVersion());
+        return todo;
+    }
+
+    @Override
+    public void insertAll(List<Todo> batch) {
+        List<String> inserted = new ArrayList<>(batch.size());
+        long last = 0;
+        for (Todo todo : batch) {
+            long sequence = insert(todo);
+            if (sequence == NOT_APPLIED) {
+                inserted.forEach(this::remove);
+                throw new DuplicateKeyException("Todo " + todo.getId() + " already exists");
+            }
+            inserted.add(todo.getId());
+            last = sequence;
+        }
+        awaitDurable(last);
+    }
+
+    @Override
+    public void delete(Todo todo) {
+        awaitDurable(remove(todo.getId()));
+    }
+
+    @Override
+    public long deleteAll(Collection<String> ids) {
+        long deleted = 0;
+        long last = 0;
+        for (String id : ids) {
+            long sequence = remove(id);
+            if (sequence != NOT_APPLIED) {
+                deleted++;
+                last = Math.max(last, sequence);
+            }
+        }
+        awaitDurable(last);
+        return deleted;
+    }
+
+    // The log sequence number of the insert, or NOT_APPLIED if the id is taken
+    private long insert(Todo todo) {
+        long[] sequence = {NOT_APPLIED};
+        write(() -> todos.compute(todo.getId(), (id, current) -> {
+            if (current != null) {
+                return current;
+            }
+            Todo stored = copy(todo);
+            sequence[0] = journal(TodoLog.SAVE, stored, id);
+            reindex(null, stored);
+            return stored;
+        }));
+        return sequence[0];
+    }
+
+    // The log sequence number of the delete, or NOT_APPLIED if there was no such todo
+    private long remove(String id) {
+        long[] sequence = {NOT_APPLIED};
+        write(() -> todos.computeIfPresent(id, (key, current) -> {
+            sequence[0] = journal(TodoLog.DELETE, null, key);
+            reindex(current, null);
+            return null;
+        }));
+        return sequence[0];
+    }
+
+    // Replay needs no log record or copy: the todo has just been decoded
+    private void restore(Todo todo) {
+        todos.compute(todo.getId(), (id, current) -> {
+            reindex(current, todo);
+            return todo;
+        });
+    }
+
+    // Changes run under the shared side of the snapshot lock, so a snapshot can pick a point with none in flight
+    private <T> T write(Supplier<T> change) {
+        if (log == null) {
+            return change.get();
+        }
+        Lock lock = snapshotLock.readLock();
+        lock.lock();
+        try {
+            return change.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called inside the compute on the todo's id, so the records of one todo are logged in the order they apply
+    private long journal(byte type, Todo todo, String id) {
+        return log == null ? 0 : log.append(type, todo, id);
+    }
+
+    private void awaitDurable(long sequence) {
+        if (log != null && sequence > 0) {
+            log.awaitDurable(sequence);
+        }
+    }
+
+    // Runs inside a compute on the todo's id, which keeps the indexes of one todo in step with its entry
+    private void reindex(Todo previous, Todo current) {
+        if (previous != null) {
+            todosByCreatedAt.remove(CreatedKey.of(previous));
+            if (previous.getUserId() != null && (current == null || !previous.getUserId().equals(current.getUserId()))) {
+                idsByUserId.computeIfPresent(previous.getUserId(), (userId, ids) -> {
+                    ids.remove(previous.getId());
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+        if (current != null) {
+            todosByCreatedAt.put(CreatedKey.of(current), current);
+            if (current.getUserId() != null) {
+                idsByUserId.compute(current.getUserId(), (userId, ids) -> {
+                    Set<String> target = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+                    target.add(current.getId());
+                    return target;
+                });
+            }
+        }
+    }
+
+    private Stream<Todo> byUserId(String userId) {
+        return idsByUserId.getOrDefault(userId, Set.of()).stream().map(todos::get).filter(Objects::nonNull);
+    }
+
+    // The matching todos in sort order, still the stored instances
+    private Stream<Todo> select(TodoFilter filter, Sort sort) {
+        NavigableMap<CreatedKey, Todo> candidates = createdIn(filter);
+        Sort.Order order = sort.getOrderFor("createdAt");
+        if (sort.isUnsorted() || (order != null && sort.stream().count() == 1)) {
+            // The index is already in creation order
+            NavigableMap<CreatedKey, Todo> ordered = order != null && order.isDescending() ? candidates.descendingMap() : candidates;
+            return ordered.values().stream().filter(filter::matches);
+        }
+        return candidates.values().stream().filter(filter::matches).sorted(comparator(sort));
+    }
+
+    private NavigableMap<CreatedKey, Todo> createdIn(TodoFilter filter) {
+        NavigableMap<CreatedKey, Todo> range = todosByCreatedAt;
+        if (filter.getCreatedFrom() != null) {
+            range = range.tailMap(CreatedKey.lowerBound(filter.getCreatedFrom()), true);
+        }
+        if (filter.getCreatedTo() != null) {
+            range = range.headMap(CreatedKey.lowerBound(filter.getCreatedTo()), false);
+        }
+        return range;
+    }
+
+    private static Slice<Todo> slice(Stream<Todo> todos, Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return new SliceImpl<>(todos.map(InMemoryRepository::copy).toList(), pageable, false);
+        }
+        // One extra row tells whether there is a next slice
+        List<Todo> page = new ArrayList<>(todos.skip(pageable.getOffset()).limit(pageable.getPageSize() + 1)
+                .map(InMemoryRepository::copy).toList());
+        boolean hasNext = page.size() > pageable.getPageSize();
+        if (hasNext) {
+            page.remove(page.size() - 1);
+        }
+        return new SliceImpl<>(page, pageable, hasNext);
+    }
+
+    // Same order as Mongo gives: missing values first when ascending, ties broken by id
+    private static Comparator<Todo> comparator(Sort sort) {
+        Comparator<Todo> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<Todo> byProperty = Comparator.comparing(property(order.getProperty()),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            comparator = comparator.thenComparing(order.isDescending() ? byProperty.reversed() : byProperty);
+        }
+        return comparator.thenComparing(Todo::getId);
     }
 
-    public void addItems(Todo todo) {
-        items.add(todo);
+    private static Function<Todo, Comparable<Object>> property(String name) {
+        Function<Todo, ?> getter = switch (name) {
+            case "id" -> Todo::getId;
+            case "title" -> Todo::getTitle;
+            case "body" -> Todo::getBody;
+            case "author" -> Todo::getAuthor;
+            case "userId" -> Todo::getUserId;
+            case "createdAt" -> Todo::getCreatedAt;
+            case "version" -> Todo::getVersion;
+            default -> throw new IllegalArgumentException("Todos cannot be sorted by " + name);
+        };
+        @SuppressWarnings("unchecked")
+        Function<Todo, Comparable<Object>> comparable = todo -> (Comparable<Object>) getter.apply(todo);
+        return comparable;
     }
 
-    public List<Todo> getItems() {
-        return items;
+    private static Todo copy(Todo todo) {
+        return todo.toBuilder().build();
     }
 }
@@ -0,0 +1,126 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StringUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Keeps todos in the {@code todos} collection.
+ */
+@Repository
+@Profile("!in-memory")
+public class MongoTodoStore implements TodoStore {
+
+    @Autowired
+    private TodoRepository todoRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public List<Todo> findAll() {
+        return todoRepository.findAll();
+    }
+
+    @Override
+    public List<Todo> findAllById(Collection<String> ids) {
+        return todoRepository.findAllById(ids);
+    }
+
+    @Override
+    public List<Todo> findByUserId(String userId) {
+        return todoRepository.findByUserId(userId);
+    }
+
+    @Override
+    public Slice<Todo> findByUserId(String userId, Pageable pageable) {
+        return todoRepository.findByUserId(userId, pageable);
+    }
+
+    @Override
+    public Slice<Todo> find(TodoFilter filter, Pageable pageable) {
+        // Fetch one extra row to find out whether there is a next slice without a count query
+        Query query = toQuery(filter).with(pageable).limit(pageable.getPageSize() + 1);
+        List<Todo> todos = mongoTemplate.find(query, Todo.class);
+        boolean hasNext = todos.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? todos.subList(0, pageable.getPageSize()) : todos, pageable, hasNext);
+    }
+
+    @Override
+    public long count(TodoFilter filter) {
+        return mongoTemplate.count(toQuery(filter), Todo.class);
+    }
+
+    @Override
+    public Stream<Todo> stream(TodoFilter filter, Sort sort) {
+        return mongoTemplate.stream(toQuery(filter).with(sort), Todo.class);
+    }
+
+    @Override
+    public Todo save(Todo todo) {
+        return todoRepository.save(todo);
+    }
+
+    @Override
+    public void insertAll(List<Todo> todos) {
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Todo.class).insert(todos).execute();
+    }
+
+    @Override
+    public void delete(Todo todo) {
+        todoRepository.delete(todo);
+    }
+
+    @Override
+    public long deleteAll(Collection<String> ids) {
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), Todo.class).getDeletedCount();
+    }
+
+    public static Query toQuery(TodoFilter filter) {
+        Query query = new Query();
+        if (StringUtils.hasText(filter.getAuthor())) {
+            query.addCriteria(Criteria.where("author").is(filter.getAuthor()));
+        }
+        if (StringUtils.hasText(filter.getTitlePrefix())) {
+            // An anchored prefix of escaped literals lets Mongo bound the scan on the title index
+            query.addCriteria(Criteria.where("title").regex("^" + escapeRegex(filter.getTitlePrefix())));
+        }
+        if (filter.getCreatedFrom() != null || filter.getCreatedTo() != null) {
+            Criteria createdAt = Criteria.where("createdAt");
+            if (filter.getCreatedFrom() != null) {
+                createdAt.gte(filter.getCreatedFrom());
+            }
+            if (filter.getCreatedTo() != null) {
+                createdAt.lt(filter.getCreatedTo());
+            }
+            query.addCriteria(createdAt);
+        }
+        return query;
+    }
+
+    private static String escapeRegex(String literal) {
+        StringBuilder escaped = new StringBuilder(literal.length());
+        for (char c : literal.toCharArray()) {
+            if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Compact binary form of a todo shared by the log and the snapshots: length-prefixed UTF-8 strings, with -1
+ * for null, and the creation time as UTC epoch seconds plus nanos.
+ */
+final class TodoCodec {
+
+    private TodoCodec() {
+    }
+
+    static void write(Todo todo, DataOutput out) throws IOException {
+        writeString(todo.getId(), out);
+        writeString(todo.getTitle(), out);
+        writeString(todo.getBody(), out);
+        writeString(todo.getAuthor(), out);
+        writeString(todo.getUserId(), out);
+        LocalDateTime createdAt = todo.getCreatedAt();
+        out.writeBoolean(createdAt != null);
+        if (createdAt != null) {
+            out.writeLong(createdAt.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(createdAt.getNano());
+        }
+        out.writeBoolean(todo.getVersion() != null);
+        if (todo.getVersion() != null) {
+            out.writeLong(todo.getVersion());
+        }
+    }
+
+    static Todo read(ByteBuffer in) {
+        Todo.TodoBuilder todo = Todo.builder()
+                .id(readString(in))
+                .title(readString(in))
+                .body(readString(in))
+                .author(readString(in))
+                .userId(readString(in));
+        if (in.get() != 0) {
+            todo.createdAt(LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC));
+        }
+        if (in.get() != 0) {
+            todo.version(in.getLong());
+        }
+        return todo.build();
+    }
+
+    static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
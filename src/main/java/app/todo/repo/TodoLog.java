@@ -0,0 +1,346 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of todo changes, written through memory-mapped segment files named after the sequence
+ * number of their first record. A record is its body length, a CRC32C of the body, and the body itself:
+ * sequence number, type and the saved todo or the deleted id. Replay stops at the first record that is torn
+ * or out of sequence.
+ * <p>
+ * Mapped pages survive a crash of the process as soon as they are written; surviving a crash of the machine
+ * takes a force to disk. A background thread forces the pages, and every writer waiting for durability is
+ * released by the same force, so concurrent saves share one fsync.
+ */
+final class TodoLog implements Closeable {
+
+    static final byte SAVE = 1;
+    static final byte DELETE = 2;
+
+    record Entry(long sequence, byte type, String id, Todo todo) {
+    }
+
+    private record Scan(long firstSequence, long lastSequence, int end) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TodoLog.class);
+    // Body length and checksum
+    private static final int HEADER_BYTES = 8;
+    // Sequence number and type
+    private static final int BODY_PREFIX_BYTES = 9;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long BACKGROUND_SYNC_MILLIS = 1000;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long fsyncMillis;
+
+    private final Object appendLock = new Object();
+    // Guarded by appendLock
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long segmentFirstSequence;
+    private long nextSequence;
+
+    private final Object durableMonitor = new Object();
+    private volatile long appendedSequence;
+    private volatile long durableSequence;
+    private volatile boolean closed;
+    private Thread syncer;
+
+    /**
+     * @param fsyncMillis how long the first waiting writer lets others join its force; 0 forces right away,
+     *                    and a negative value lets writers go on without waiting, with a force every second
+     */
+    TodoLog(Path dir, int segmentBytes, long fsyncMillis) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsyncMillis = fsyncMillis;
+    }
+
+    /**
+     * Reads the records after the given sequence number, segments in parallel, and positions the log to
+     * append after the last intact one.
+     *
+     * @return the last record for every todo
+     */
+    Map<String, Entry> recover(long afterSequence) throws IOException {
+        Files.createDirectories(dir);
+        List<Long> segments = segments();
+        List<Long> needed = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            // Segments whose records all made it into the snapshot are skipped
+            if (i + 1 == segments.size() || segments.get(i + 1) - 1 > afterSequence) {
+                needed.add(segments.get(i));
+            }
+        }
+        if (!needed.isEmpty() && needed.get(0) > afterSequence + 1) {
+            throw new IllegalStateException("The todo log in " + dir + " starts at " + needed.get(0)
+                    + " but the snapshot ends at " + afterSequence);
+        }
+
+        Map<String, Entry> latest = new ConcurrentHashMap<>();
+        List<Scan> scans = needed.parallelStream().map(first -> scan(first, afterSequence, latest)).toList();
+        for (int i = 0; i + 1 < scans.size(); i++) {
+            // Only the segment written last may end in a torn record
+            if (scans.get(i).lastSequence() + 1 != scans.get(i + 1).firstSequence()) {
+                throw new IllegalStateException("Todo log segment " + segment(scans.get(i).firstSequence())
+                        + " is damaged after record " + scans.get(i).lastSequence());
+            }
+        }
+
+        synchronized (appendLock) {
+            Scan last = scans.isEmpty() ? null : scans.get(scans.size() - 1);
+            if (last == null || last.lastSequence() < afterSequence) {
+                nextSequence = afterSequence + 1;
+                openSegment(nextSequence, segmentBytes, 0);
+            } else {
+                nextSequence = last.lastSequence() + 1;
+                openSegment(last.firstSequence(), segmentBytes, last.end());
+            }
+            appendedSequence = nextSequence - 1;
+            durableSequence = appendedSequence;
+        }
+        syncer = new Thread(this::syncLoop, "todo-log-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        return latest;
+    }
+
+    /**
+     * Appends a record and returns its sequence number. The record is not durable before
+     * {@link #awaitDurable} returns for it.
+     */
+    long append(byte type, Todo todo, String id) {
+        byte[] payload = encode(type, todo, id);
+        int length = BODY_PREFIX_BYTES + payload.length;
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("The todo log is closed");
+            }
+            // Room for the record and for the zero length that marks the end
+            if (buffer.remaining() < HEADER_BYTES + length + 4) {
+                roll(HEADER_BYTES + length + 4);
+            }
+            long sequence = nextSequence++;
+            int position = buffer.position();
+            buffer.position(position + HEADER_BYTES);
+            buffer.putLong(sequence).put(type).put(payload);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(position + HEADER_BYTES, length));
+            buffer.putInt(position, length);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            appendedSequence = sequence;
+            return sequence;
+        }
+    }
+
+    void awaitDurable(long sequence) {
+        if (fsyncMillis < 0 || durableSequence >= sequence) {
+            return;
+        }
+        LockSupport.unpark(syncer);
+        synchronized (durableMonitor) {
+            while (durableSequence < sequence) {
+                try {
+                    durableMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the todo log", e);
+                }
+            }
+        }
+    }
+
+    long getLastSequence() {
+        synchronized (appendLock) {
+            return nextSequence - 1;
+        }
+    }
+
+    /**
+     * Deletes the segments holding nothing after the given sequence number, once a snapshot covers them.
+     */
+    void truncate(long upToSequence) throws IOException {
+        long active;
+        synchronized (appendLock) {
+            active = segmentFirstSequence;
+        }
+        List<Long> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (segments.get(i + 1) - 1 <= upToSequence && segments.get(i) != active) {
+                Files.deleteIfExists(segment(segments.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (syncer == null) {
+            // Never recovered, so nothing was opened
+            return;
+        }
+        LockSupport.unpark(syncer);
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        synchronized (appendLock) {
+            channel.close();
+        }
+    }
+
+    private void syncLoop() {
+        while (!closed) {
+            if (appendedSequence <= durableSequence) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(BACKGROUND_SYNC_MILLIS));
+                continue;
+            }
+            if (fsyncMillis != 0) {
+                // Lets more writers join this force
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(fsyncMillis > 0 ? fsyncMillis : BACKGROUND_SYNC_MILLIS));
+            }
+            sync();
+        }
+    }
+
+    private void sync() {
+        long target;
+        MappedByteBuffer mapped;
+        synchronized (appendLock) {
+            target = appendedSequence;
+            mapped = buffer;
+        }
+        try {
+            // Earlier segments were forced when the log rolled over
+            mapped.force();
+        } catch (UncheckedIOException e) {
+            logger.error("Could not force the todo log to disk", e);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(BACKGROUND_SYNC_MILLIS));
+            return;
+        }
+        synchronized (durableMonitor) {
+            durableSequence = target;
+            durableMonitor.notifyAll();
+        }
+    }
+
+    // Guarded by appendLock
+    private void roll(int minBytes) {
+        try {
+            buffer.force();
+            channel.close();
+            openSegment(nextSequence, Math.max(segmentBytes, minBytes), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Guarded by appendLock
+    private void openSegment(long firstSequence, int size, int position) throws IOException {
+        Path file = segment(firstSequence);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            // Left over behind a torn record; cleared so that replay cannot mistake it for a later record
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.position(position);
+        segmentFirstSequence = firstSequence;
+    }
+
+    private Scan scan(long firstSequence, long afterSequence, Map<String, Entry> latest) {
+        try (FileChannel in = FileChannel.open(segment(firstSequence), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            CRC32C crc = new CRC32C();
+            long expected = firstSequence;
+            int position = 0;
+            while (position + HEADER_BYTES <= mapped.limit()) {
+                int length = mapped.getInt(position);
+                if (length < BODY_PREFIX_BYTES || length > mapped.limit() - position - HEADER_BYTES) {
+                    break;
+                }
+                ByteBuffer body = mapped.slice(position + HEADER_BYTES, length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != mapped.getInt(position + 4) || body.getLong() != expected) {
+                    break;
+                }
+                byte type = body.get();
+                if (type != SAVE && type != DELETE) {
+                    break;
+                }
+                if (expected > afterSequence) {
+                    Todo todo = type == SAVE ? TodoCodec.read(body) : null;
+                    Entry entry = new Entry(expected, type, todo != null ? todo.getId() : TodoCodec.readString(body), todo);
+                    latest.merge(entry.id(), entry, (a, b) -> a.sequence() > b.sequence() ? a : b);
+                }
+                position += HEADER_BYTES + length;
+                expected++;
+            }
+            return new Scan(firstSequence, expected - 1, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segment(long firstSequence) {
+        return dir.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(byte type, Todo todo, String id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (type == SAVE) {
+                TodoCodec.write(todo, out);
+            } else {
+                TodoCodec.writeString(id, out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
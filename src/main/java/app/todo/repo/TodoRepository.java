@@ -1,6 +1,8 @@
 package app.todo.repo;
 
 import app.todo.model.Todo;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -9,4 +11,8 @@ import java.util.List;
 @Repository
 public interface TodoRepository extends MongoRepository<Todo, String> {
     List<Todo> findByUserId(String userId);
+
+    Slice<Todo> findByUserId(String userId, Pageable pageable);
+
+    Slice<Todo> findAllBy(Pageable pageable);
 }
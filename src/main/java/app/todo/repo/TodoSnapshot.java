@@ -0,0 +1,177 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshot files of the in-memory store. After a short header with the sequence number of the last log
+ * record they cover, the todos follow in sections, each with its own count, length and CRC32C, so that
+ * sections can be read and decoded in parallel. A section of no todos ends the file.
+ */
+final class TodoSnapshot {
+
+    record Loaded(long sequence, List<Todo> todos) {
+    }
+
+    private record Section(long position, int count, int length, int crc) {
+    }
+
+    private static final int MAGIC = 0x54534E50;
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SECTION_HEADER_BYTES = 12;
+    private static final int SECTION_TODOS = 8192;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private TodoSnapshot() {
+    }
+
+    /**
+     * Writes the todos next to a temporary name, forces them to disk and renames the file into place, then
+     * removes older snapshots.
+     */
+    static void write(Path dir, long sequence, Iterable<Todo> todos) throws IOException {
+        Path target = dir.resolve(name(sequence));
+        Path temp = dir.resolve(name(sequence) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(sequence);
+            ByteArrayOutputStream section = new ByteArrayOutputStream(1 << 20);
+            DataOutputStream sectionOut = new DataOutputStream(section);
+            int count = 0;
+            for (Todo todo : todos) {
+                TodoCodec.write(todo, sectionOut);
+                if (++count == SECTION_TODOS) {
+                    writeSection(out, count, section);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                writeSection(out, count, section);
+            }
+            out.writeInt(0);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename only survives a crash once the directory is on disk, and the caller drops the log
+        // segments the snapshot covers as soon as this returns
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        for (long older : sequences(dir)) {
+            if (older < sequence) {
+                Files.deleteIfExists(dir.resolve(name(older)));
+            }
+        }
+    }
+
+    /**
+     * Reads the newest snapshot, or returns an empty one at sequence 0 if there is none.
+     */
+    static Loaded read(Path dir) throws IOException {
+        List<Long> sequences = sequences(dir);
+        if (sequences.isEmpty()) {
+            return new Loaded(0, List.of());
+        }
+        Path file = dir.resolve(name(sequences.get(sequences.size() - 1)));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new IOException(file + " is not a todo snapshot");
+            }
+            long sequence = header.getLong();
+            List<Section> sections = new ArrayList<>();
+            long position = HEADER_BYTES;
+            int count;
+            while ((count = read(channel, position, 4).getInt()) != 0) {
+                ByteBuffer sectionHeader = read(channel, position, SECTION_HEADER_BYTES);
+                sectionHeader.getInt();
+                Section section = new Section(position + SECTION_HEADER_BYTES, count, sectionHeader.getInt(), sectionHeader.getInt());
+                sections.add(section);
+                position = section.position() + section.length();
+            }
+            try {
+                List<Todo> todos = sections.parallelStream().flatMap(section -> decode(channel, file, section).stream()).toList();
+                return new Loaded(sequence, todos);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static void writeSection(DataOutputStream out, int count, ByteArrayOutputStream section) throws IOException {
+        byte[] bytes = section.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        out.writeInt(count);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        section.reset();
+    }
+
+    private static List<Todo> decode(FileChannel channel, Path file, Section section) {
+        try {
+            ByteBuffer bytes = read(channel, section.position(), section.length());
+            CRC32C crc = new CRC32C();
+            crc.update(bytes.duplicate());
+            if ((int) crc.getValue() != section.crc()) {
+                throw new IOException(file + " is damaged at offset " + section.position());
+            }
+            List<Todo> todos = new ArrayList<>(section.count());
+            for (int i = 0; i < section.count(); i++) {
+                todos.add(TodoCodec.read(bytes));
+            }
+            return todos;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Positional reads, which several threads may do on one channel at the same time
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Todo snapshot ends before offset " + (position + length));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static List<Long> sequences(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static String name(long sequence) {
+        return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+    }
+}
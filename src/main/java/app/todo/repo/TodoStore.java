@@ -0,0 +1,54 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Where todos are kept. {@link MongoTodoStore} is the default; the {@code in-memory} profile switches to
+ * {@link InMemoryRepository}. Both follow the same rules: a todo without an id is inserted and given one, and
+ * a save carrying a version that is no longer current fails with an
+ * {@link org.springframework.dao.OptimisticLockingFailureException}.
+ */
+public interface TodoStore {
+
+    List<Todo> findAll();
+
+    /**
+     * The todos with the given ids that exist, in no particular order.
+     */
+    List<Todo> findAllById(Collection<String> ids);
+
+    List<Todo> findByUserId(String userId);
+
+    Slice<Todo> findByUserId(String userId, Pageable pageable);
+
+    Slice<Todo> find(TodoFilter filter, Pageable pageable);
+
+    long count(TodoFilter filter);
+
+    /**
+     * Streams every todo matching the filter. The caller has to close the stream.
+     */
+    Stream<Todo> stream(TodoFilter filter, Sort sort);
+
+    Todo save(Todo todo);
+
+    /**
+     * Inserts todos that already carry their ids and versions in a single write. Mongo writes them unordered,
+     * so when some fail the others are in and the
+     * {@link org.springframework.data.mongodb.BulkOperationException} tells which failed; the in-memory store
+     * inserts all of them or none.
+     */
+    void insertAll(List<Todo> todos);
+
+    void delete(Todo todo);
+
+    long deleteAll(Collection<String> ids);
+}
@@ -0,0 +1,81 @@
+package app.todo.service;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.Document;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+
+/**
+ * A stored file that can be opened any number of times, which lets Spring serve byte ranges from it. Each
+ * stream skips straight to the chunk holding the requested offset, so a range only reads the chunks it covers.
+ */
+public class AttachmentResource extends AbstractResource {
+
+    // Chunks fetched per round trip, so a small range does not pull a full cursor batch of chunks
+    private static final int CHUNKS_PER_BATCH = 4;
+
+    private final GridFSBucket bucket;
+    private final GridFSFile file;
+    private final String filename;
+    private final String contentType;
+    private final TransferMeter downloads;
+
+    AttachmentResource(GridFSBucket bucket, GridFSFile file, TransferMeter downloads) {
+        this(bucket, file, file.getFilename(), file.getMetadata() == null ? null
+                : file.getMetadata().getString(AttachmentService.CONTENT_TYPE_KEY), downloads);
+    }
+
+    AttachmentResource(GridFSBucket bucket, GridFSFile file, String filename, String contentType, TransferMeter downloads) {
+        this.bucket = bucket;
+        this.file = file;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.downloads = downloads;
+    }
+
+    // Metered per stream, so a range request counts the bytes of its range only
+    @Override
+    public InputStream getInputStream() {
+        return downloads.meter(bucket.openDownloadStream(file.getObjectId()).batchSize(CHUNKS_PER_BATCH));
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.getLength();
+    }
+
+    @Override
+    public long lastModified() {
+        return file.getUploadDate().getTime();
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "GridFS file [" + file.getObjectId().toHexString() + "]";
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Stored files never change, so the checksum (or failing that the id) identifies the content for good.
+     */
+    public String getETag() {
+        Document metadata = file.getMetadata();
+        String sha256 = metadata == null ? null : metadata.getString(AttachmentService.SHA256_KEY);
+        return sha256 != null ? sha256 : file.getObjectId().toHexString();
+    }
+}
@@ -0,0 +1,395 @@
+package app.todo.service;
+
+import app.todo.model.Attachment;
+import app.todo.model.AttachmentChangeEvent;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoGridFSException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import com.vaadin.flow.shared.Registration;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores attachments content-addressed: an upload whose SHA-256 is already in GridFS only adds a reference
+ * to the existing file, and a file is deleted with its last reference. The metadata of all attachments is
+ * kept in memory, newest first, so listing a page of them never touches Mongo. That cache is updated by
+ * uploads and deletes on this node and by those of other replicas, which arrive over the {@link BroadcastBus}.
+ */
+@Service
+public class AttachmentService {
+
+    static final String FILES_COLLECTION = "fs.files";
+    static final String CHUNKS_COLLECTION = "fs.chunks";
+    // Key GridFsTemplate stores the content type under, so both write paths stay readable by GridFsResource
+    static final String CONTENT_TYPE_KEY = "_contentType";
+    static final String SHA256_KEY = "sha256";
+    static final String REF_COUNT_KEY = "refCount";
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentService.class);
+    private static final Comparator<Attachment> NEWEST_FIRST = Comparator
+            .comparing(Attachment::getUploadDate)
+            .thenComparing(Attachment::getId)
+            .reversed();
+
+    @Autowired
+    private GridFSBucket gridFSBucket;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BroadcastBus bus;
+
+    @Value("${todo.upload.chunk-size:261120}")
+    private int chunkSize;
+
+    private final NavigableSet<Attachment> attachments = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    private final Map<String, Attachment> attachmentsById = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private final Object changeLock = new Object();
+    // Guarded by changeLock: changes made while the first load runs, applied on top of what it read
+    private List<AttachmentChangeEvent> changesDuringLoad;
+    private final String nodeId = UUID.randomUUID().toString();
+    private Registration busRegistration;
+
+    private final LongAdder deduplicatedUploads = new LongAdder();
+    private TransferMeter uploads;
+    private TransferMeter downloads;
+
+    @PostConstruct
+    void start() {
+        // Uploads and deletes of the other replicas
+        busRegistration = bus.subscribe(nodeId, events -> events.forEach(event -> {
+            if (event instanceof AttachmentChangeEvent change) {
+                apply(change);
+            }
+        }));
+        uploads = new TransferMeter(meterRegistry, "todo.attachment.upload");
+        downloads = new TransferMeter(meterRegistry, "todo.attachment.download");
+        FunctionCounter.builder("todo.attachment.upload.deduplicated", deduplicatedUploads, LongAdder::sum)
+                .description("Uploads whose content was stored already")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() {
+        busRegistration.remove();
+    }
+
+    /**
+     * Opens a stream for an uploaded file, to be passed to {@link #store} once it has been received completely
+     * or to {@link #discard} otherwise.
+     */
+    public AttachmentUpload openUpload(String filename, String contentType) {
+        try {
+            return new AttachmentUpload(filename, contentType, sha256());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the content of an attachment or of an export file with the given id, or null if there is none.
+     */
+    public AttachmentResource getResource(String id) {
+        if (!ObjectId.isValid(id)) {
+            return null;
+        }
+        Attachment attachment = findAttachment(id);
+        GridFSFile file = findFile(new ObjectId(attachment != null ? attachment.getBlobId() : id));
+        if (file == null) {
+            return null;
+        }
+        return attachment != null
+                ? new AttachmentResource(gridFSBucket, file, attachment.getFilename(), attachment.getContentType(), downloads)
+                : new AttachmentResource(gridFSBucket, file, downloads);
+    }
+
+    /**
+     * Returns the PNG thumbnail of an attachment, or null if it has none (yet).
+     */
+    public byte[] getThumbnail(String id) {
+        Attachment attachment = ObjectId.isValid(id) ? findAttachment(id) : null;
+        if (attachment == null || !ThumbnailService.isSupported(attachment.getContentType())) {
+            return null;
+        }
+        ObjectId blobId = new ObjectId(attachment.getBlobId());
+        byte[] cached = thumbnailService.getCached(blobId);
+        if (cached != null) {
+            return cached;
+        }
+        GridFSFile file = findFile(blobId);
+        return file == null ? null : thumbnailService.getThumbnail(file);
+    }
+
+    public List<Attachment> getAttachments(int offset, int limit) {
+        ensureLoaded();
+        return attachments.stream().skip(offset).limit(limit).toList();
+    }
+
+    public void delete(String id) {
+        Attachment attachment = mongoTemplate.findAndRemove(Query.query(Criteria.where("_id").is(id)), Attachment.class);
+        apply(AttachmentChangeEvent.removed(id));
+        if (attachment != null) {
+            bus.publish(nodeId, AttachmentChangeEvent.removed(id));
+            release(new ObjectId(attachment.getBlobId()));
+        }
+    }
+
+    public void deleteAll() {
+        Query ids = new Query();
+        ids.fields().include("_id");
+        mongoTemplate.find(ids, Attachment.class).forEach(attachment -> delete(attachment.getId()));
+    }
+
+    /**
+     * Drops an upload that failed or was interrupted. Nothing has been stored for it, so only its temporary
+     * file is deleted.
+     */
+    public void discard(AttachmentUpload upload) {
+        try {
+            upload.discard();
+        } catch (IOException e) {
+            logger.warn("Could not discard upload {}", upload.getFilename(), e);
+        }
+    }
+
+    public long getDeduplicatedUploads() {
+        return deduplicatedUploads.sum();
+    }
+
+    /**
+     * Stores a completely received upload, as a reference to the stored file if its content is there already.
+     *
+     * @throws IllegalStateException if the upload stream has not been closed
+     */
+    public Attachment store(AttachmentUpload upload) throws IOException {
+        if (upload.getSha256() == null) {
+            throw new IllegalStateException("Upload of " + upload.getFilename() + " has not been received completely");
+        }
+        try {
+            return storeReceived(upload);
+        } finally {
+            upload.discard();
+        }
+    }
+
+    private Attachment storeReceived(AttachmentUpload upload) throws IOException {
+        ObjectId blobId = reference(upload.getSha256());
+        if (blobId != null) {
+            deduplicatedUploads.increment();
+        } else {
+            blobId = storeBlob(upload);
+        }
+        Attachment attachment = mongoTemplate.insert(Attachment.builder()
+                .filename(upload.getFilename())
+                .contentType(upload.getContentType())
+                .length(upload.getLength())
+                .uploadDate(LocalDateTime.now())
+                .sha256(upload.getSha256())
+                .blobId(blobId.toHexString())
+                .build());
+        apply(AttachmentChangeEvent.added(attachment));
+        bus.publish(nodeId, AttachmentChangeEvent.added(attachment));
+        uploads.record(upload.getLength(), upload.getStartedAt());
+        logger.debug("Stored upload {} ({} bytes) as {}", attachment.getId(), upload.getLength(), blobId);
+        return attachment;
+    }
+
+    // Adds a reference to the file holding this content, if there is one
+    private ObjectId reference(String sha256) {
+        Document blob = files().findOneAndUpdate(Filters.eq("metadata." + SHA256_KEY, sha256),
+                Updates.inc("metadata." + REF_COUNT_KEY, 1),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        return blob == null ? null : blob.getObjectId("_id");
+    }
+
+    private ObjectId storeBlob(AttachmentUpload upload) throws IOException {
+        GridFSUploadOptions options = new GridFSUploadOptions()
+                .chunkSizeBytes(chunkSize)
+                .metadata(new Document(CONTENT_TYPE_KEY, upload.getContentType())
+                        .append(SHA256_KEY, upload.getSha256())
+                        .append(REF_COUNT_KEY, 1));
+        ObjectId blobId = new ObjectId();
+        try (InputStream in = Files.newInputStream(upload.getSpillFile())) {
+            gridFSBucket.uploadFromStream(new BsonObjectId(blobId), upload.getFilename(), in, options);
+            thumbnailService.submit(blobId, upload.getContentType());
+            return blobId;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+        // The same content was stored concurrently: drop the chunks written here and reference that copy
+        mongoTemplate.getCollection(CHUNKS_COLLECTION).deleteMany(Filters.eq("files_id", blobId));
+        ObjectId existing = reference(upload.getSha256());
+        if (existing == null) {
+            throw new MongoGridFSException("Stored content " + upload.getSha256() + " disappeared while uploading");
+        }
+        return existing;
+    }
+
+    // Removes a reference and the file with it if it was the last one
+    private void release(ObjectId blobId) {
+        files().updateOne(Filters.eq("_id", blobId), Updates.inc("metadata." + REF_COUNT_KEY, -1));
+        // Conditional, so a reference added in the meantime keeps the file alive
+        Document deleted = files().findOneAndDelete(Filters.and(Filters.eq("_id", blobId),
+                Filters.lte("metadata." + REF_COUNT_KEY, 0)));
+        if (deleted != null) {
+            mongoTemplate.getCollection(CHUNKS_COLLECTION).deleteMany(Filters.eq("files_id", blobId));
+            thumbnailService.delete(blobId, deleted.get("metadata", Document.class));
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    synchronized (changeLock) {
+                        changesDuringLoad = new ArrayList<>();
+                    }
+                    List<Attachment> stored = null;
+                    try {
+                        adoptLegacyFiles();
+                        stored = load(new Query());
+                    } finally {
+                        synchronized (changeLock) {
+                            if (stored != null) {
+                                stored.forEach(this::remember);
+                            }
+                            // The load may have missed these or read what they undo
+                            changesDuringLoad.forEach(this::applyNow);
+                            changesDuringLoad = null;
+                            loaded = stored != null;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Files uploaded before attachments were content-addressed become attachments holding their only reference
+    private void adoptLegacyFiles() {
+        // Exports and thumbnails carry a kind, attachments do not
+        Query legacy = Query.query(Criteria.where("metadata.kind").exists(false)
+                .and("metadata." + REF_COUNT_KEY).exists(false));
+        for (GridFSFile file : gridFSBucket.find(legacy.getQueryObject())) {
+            Document metadata = file.getMetadata();
+            mongoTemplate.save(Attachment.builder()
+                    .id(file.getObjectId().toHexString())
+                    .filename(file.getFilename())
+                    .contentType(metadata == null ? null : metadata.getString(CONTENT_TYPE_KEY))
+                    .length(file.getLength())
+                    .uploadDate(LocalDateTime.ofInstant(file.getUploadDate().toInstant(), ZoneId.systemDefault()))
+                    .sha256(metadata == null ? null : metadata.getString(SHA256_KEY))
+                    .blobId(file.getObjectId().toHexString())
+                    .build());
+            files().updateOne(Filters.eq("_id", file.getObjectId()), Updates.set("metadata." + REF_COUNT_KEY, 1));
+        }
+    }
+
+    private List<Attachment> load(Query query) {
+        return mongoTemplate.find(query.with(Sort.by(Sort.Direction.DESC, "uploadDate")), Attachment.class);
+    }
+
+    // Applied right away except while the first load runs. A change made before the load starts is in what
+    // the load reads anyway
+    private void apply(AttachmentChangeEvent change) {
+        synchronized (changeLock) {
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(change);
+            } else {
+                applyNow(change);
+            }
+        }
+    }
+
+    private void applyNow(AttachmentChangeEvent change) {
+        switch (change.getType()) {
+            case ADDED -> remember(change.getAttachment());
+            case REMOVED -> forget(change.getAttachmentId());
+        }
+    }
+
+    private void remember(Attachment attachment) {
+        Attachment previous = attachmentsById.put(attachment.getId(), attachment);
+        if (previous != null) {
+            attachments.remove(previous);
+        }
+        attachments.add(attachment);
+    }
+
+    private void forget(String id) {
+        Attachment removed = attachmentsById.remove(id);
+        if (removed != null) {
+            attachments.remove(removed);
+        }
+    }
+
+    private Attachment findAttachment(String id) {
+        Attachment attachment = attachmentsById.get(id);
+        return attachment != null ? attachment : mongoTemplate.findById(id, Attachment.class);
+    }
+
+    private GridFSFile findFile(ObjectId id) {
+        return gridFSBucket.find(Filters.eq("_id", id)).first();
+    }
+
+    private MongoCollection<Document> files() {
+        return mongoTemplate.getCollection(FILES_COLLECTION);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package app.todo.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Receives one uploaded file into a temporary file while computing its SHA-256, so that once it is complete
+ * the content only needs to be written to GridFS if it is not stored already. Memory use is one buffer
+ * whatever the size of the file. Closing the stream only finishes the temporary file: a complete upload is
+ * stored through {@link AttachmentService#store}, any other is discarded.
+ */
+public class AttachmentUpload extends OutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String filename;
+    private final String contentType;
+    private final Path spillFile;
+    private final OutputStream target;
+    private final MessageDigest digest;
+    private final long startedAt = System.nanoTime();
+    private long length;
+    private String sha256;
+    private boolean closed;
+
+    AttachmentUpload(String filename, String contentType, MessageDigest digest) throws IOException {
+        this.filename = filename;
+        this.contentType = contentType;
+        this.digest = digest;
+        this.spillFile = Files.createTempFile("todo-upload-", ".part");
+        this.target = new BufferedOutputStream(Files.newOutputStream(spillFile), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target.write(b);
+        digest.update((byte) b);
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target.write(b, off, len);
+        digest.update(b, off, len);
+        length += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        target.close();
+        sha256 = HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Deletes the temporary file, whether or not the upload was received completely.
+     */
+    void discard() throws IOException {
+        try {
+            if (!closed) {
+                closed = true;
+                target.close();
+            }
+        } finally {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    Path getSpillFile() {
+        return spillFile;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+}
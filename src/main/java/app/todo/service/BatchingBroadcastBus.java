@@ -0,0 +1,91 @@
+package app.todo.service;
+
+import app.todo.model.BroadcastEvent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers outgoing events and sends them as one batch per origin node once the flush interval has passed
+ * or the batch is full.
+ */
+public abstract class BatchingBroadcastBus implements BroadcastBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingBroadcastBus.class);
+
+    private final Queue<Outgoing> outbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboxSize = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private final long flushMillis;
+    private final int maxBatchSize;
+
+    protected BatchingBroadcastBus(long flushMillis, int maxBatchSize) {
+        this.flushMillis = flushMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "broadcast-bus-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends events that were published on {@code nodeId}, in publish order.
+     */
+    protected abstract void sendBatch(String nodeId, List<BroadcastEvent> events);
+
+    @Override
+    public void publish(String nodeId, BroadcastEvent event) {
+        outbox.add(new Outgoing(nodeId, event));
+        if (outboxSize.incrementAndGet() >= maxBatchSize) {
+            flusher.execute(this::flush);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Only ever runs on the single flusher thread
+    private void flush() {
+        flushScheduled.set(false);
+        Map<String, List<BroadcastEvent>> batches = new LinkedHashMap<>();
+        Outgoing outgoing;
+        int drained = 0;
+        while (drained < maxBatchSize && (outgoing = outbox.poll()) != null) {
+            outboxSize.decrementAndGet();
+            drained++;
+            batches.computeIfAbsent(outgoing.nodeId, nodeId -> new ArrayList<>()).add(outgoing.event);
+        }
+        batches.forEach((nodeId, events) -> {
+            try {
+                sendBatch(nodeId, events);
+            } catch (RuntimeException e) {
+                logger.warn("Could not send {} change events to the other nodes", events.size(), e);
+            }
+        });
+        if (!outbox.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.execute(this::flush);
+        flusher.shutdown();
+    }
+
+    private record Outgoing(String nodeId, BroadcastEvent event) {
+    }
+}
@@ -0,0 +1,25 @@
+package app.todo.service;
+
+import app.todo.model.BroadcastEvent;
+import com.vaadin.flow.shared.Registration;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Carries change events between the nodes of a deployment so that every {@link Broadcastor} sees the
+ * writes made on the other replicas, and every {@link AttachmentService} the uploads and deletes.
+ */
+public interface BroadcastBus {
+
+    /**
+     * Hands an event published on the given node to the other nodes. Implementations may batch sends.
+     */
+    void publish(String nodeId, BroadcastEvent event);
+
+    /**
+     * Delivers events published on other nodes to the receiver, in publish order. Events published by
+     * {@code nodeId} itself are never delivered back to it.
+     */
+    Registration subscribe(String nodeId, Consumer<List<BroadcastEvent>> receiver);
+}
@@ -1,33 +1,317 @@
 package app.todo.service;
 
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
 import com.vaadin.flow.shared.Registration;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 
-import java.util.LinkedList;
-import java.util.concurrent.Executor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
+/**
+ * Fans todo change events out to the listeners subscribed to the topics an event belongs to, on this node
+ * and, through the {@link BroadcastBus}, on every other replica. Every listener
+ * gets its own bounded queue that is drained in order on a shared pool, so a slow listener only ever delays
+ * itself. Events arriving within the batch window reach a listener as one list.
+ * <p>
+ * Metered as {@code todo.broadcast.*}: the events queued for all listeners, the events dropped, the events
+ * published and the subscribers per kind of topic, and the delivery latency from an event reaching an idle
+ * listener until the listener has handled the batch with it.
+ */
+@Service
 public class Broadcastor {
 
+    public enum OverflowPolicy {
+        /** Discard the oldest pending event to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the whole backlog and keep only the newest event. */
+        COALESCE
+    }
+
+    public static final String GLOBAL_TOPIC = "global";
+
+    private static final Logger logger = LoggerFactory.getLogger(Broadcastor.class);
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> publishedByKind = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final BroadcastBus bus;
+    private final Registration busRegistration;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long batchWindowMillis;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+    private final Timer deliveryTimer;
 
-    static Executor executor = Executors.newSingleThreadExecutor();
-    static LinkedList<Consumer<String>> listeners = new LinkedList<>();
+    @Autowired
+    public Broadcastor(@Value("${todo.broadcast.queue-capacity:256}") int queueCapacity,
+                       @Value("${todo.broadcast.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                       @Value("${todo.broadcast.batch-window-ms:100}") long batchWindowMillis,
+                       @Value("${todo.broadcast.delivery-threads:4}") int deliveryThreads,
+                       BroadcastBus bus,
+                       MeterRegistry meterRegistry) {
+        this(queueCapacity, overflowPolicy, batchWindowMillis, Executors.newScheduledThreadPool(deliveryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "broadcast-delivery");
+            thread.setDaemon(true);
+            return thread;
+        }), bus, meterRegistry);
+    }
+
+    Broadcastor(int queueCapacity, OverflowPolicy overflowPolicy, long batchWindowMillis, ScheduledExecutorService executor) {
+        this(queueCapacity, overflowPolicy, batchWindowMillis, executor, new InProcessBroadcastBus());
+    }
 
-    public static synchronized Registration register(Consumer<String> listener) {
-        listeners.add(listener);
+    // Unmetered: an empty composite registry records nothing
+    Broadcastor(int queueCapacity, OverflowPolicy overflowPolicy, long batchWindowMillis, ScheduledExecutorService executor,
+                BroadcastBus bus) {
+        this(queueCapacity, overflowPolicy, batchWindowMillis, executor, bus, new CompositeMeterRegistry());
+    }
 
-        return () -> {
-            synchronized (Broadcastor.class){
-                listeners.remove(listener);
+    Broadcastor(int queueCapacity, OverflowPolicy overflowPolicy, long batchWindowMillis, ScheduledExecutorService executor,
+                BroadcastBus bus, MeterRegistry meterRegistry) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.batchWindowMillis = batchWindowMillis;
+        this.executor = executor;
+        this.bus = bus;
+        this.meterRegistry = meterRegistry;
+        deliveryTimer = Timer.builder("todo.broadcast.delivery").register(meterRegistry);
+        Gauge.builder("todo.broadcast.queued", this, Broadcastor::getQueuedEvents).register(meterRegistry);
+        Gauge.builder("todo.broadcast.listeners", this, Broadcastor::getListenerCount).register(meterRegistry);
+        FunctionCounter.builder("todo.broadcast.dropped", droppedEvents, AtomicLong::get).register(meterRegistry);
+        busRegistration = bus.subscribe(nodeId, events -> events.forEach(event -> {
+            if (event instanceof TodoChangeEvent change) {
+                dispatch(change);
             }
-        };
+        }));
+    }
+
+    public static String authorTopic(String author) {
+        return "author:" + author;
+    }
+
+    public static String userTopic(String userId) {
+        return "user:" + userId;
+    }
+
+    public Registration register(Consumer<List<TodoChangeEvent>> listener) {
+        return register(GLOBAL_TOPIC, listener);
+    }
 
+    public Registration register(String topicName, Consumer<List<TodoChangeEvent>> listener) {
+        Subscriber subscriber = new Subscriber(listener);
+        topics.compute(topicName, (name, topic) -> {
+            Topic target = topic == null
+                    ? new Topic(publishedByKind.computeIfAbsent(topicKind(name), this::registerTopicMeters))
+                    : topic;
+            target.subscribers.add(subscriber);
+            return target;
+        });
+        return () -> topics.computeIfPresent(topicName, (name, topic) -> {
+            subscriber.active = false;
+            topic.subscribers.remove(subscriber);
+            return topic.subscribers.isEmpty() ? null : topic;
+        });
     }
 
-    public static synchronized void broadcast(String message) {
-        for (Consumer<String> listener : listeners) {
-            executor.execute(() -> listener.accept(message));
+    public void publish(TodoChangeEvent event) {
+        dispatch(event);
+        bus.publish(nodeId, event);
+    }
+
+    private void dispatch(TodoChangeEvent event) {
+        Todo todo = event.getTodo();
+        if (todo == null) {
+            // Without the todo there is no telling who shows it, so everybody gets the event
+            topics.values().forEach(topic -> topic.publish(event));
+            return;
+        }
+        publish(GLOBAL_TOPIC, event);
+        if (todo.getAuthor() != null) {
+            publish(authorTopic(todo.getAuthor()), event);
+        }
+        if (event.getPreviousAuthor() != null) {
+            // Those following the old author still show the todo and have to drop it
+            publish(authorTopic(event.getPreviousAuthor()), event);
+        }
+        if (todo.getUserId() != null) {
+            publish(userTopic(todo.getUserId()), event);
+        }
+    }
+
+    private void publish(String topicName, TodoChangeEvent event) {
+        Topic topic = topics.get(topicName);
+        if (topic != null) {
+            topic.publish(event);
         }
+    }
+
+    public int getListenerCount() {
+        return topics.values().stream().mapToInt(topic -> topic.subscribers.size()).sum();
+    }
+
+    // Topics are named after authors and users, so they are metered by kind to keep the series bounded
+    private static String topicKind(String topicName) {
+        int colon = topicName.indexOf(':');
+        return colon < 0 ? topicName : topicName.substring(0, colon);
+    }
+
+    private LongAdder registerTopicMeters(String kind) {
+        LongAdder published = new LongAdder();
+        FunctionCounter.builder("todo.broadcast.published", published, LongAdder::sum)
+                .tag("topic", kind)
+                .register(meterRegistry);
+        Gauge.builder("todo.broadcast.subscribers", this, broadcastor -> broadcastor.getListenerCount(kind))
+                .tag("topic", kind)
+                .register(meterRegistry);
+        return published;
+    }
 
+    private int getListenerCount(String kind) {
+        int listeners = 0;
+        for (Map.Entry<String, Topic> topic : topics.entrySet()) {
+            if (topicKind(topic.getKey()).equals(kind)) {
+                listeners += topic.getValue().subscribers.size();
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * Events waiting in the queues of all listeners.
+     */
+    public int getQueuedEvents() {
+        int queued = 0;
+        for (Topic topic : topics.values()) {
+            for (Subscriber subscriber : topic.subscribers) {
+                queued += subscriber.size.get();
+            }
+        }
+        return queued;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        busRegistration.remove();
+        executor.shutdownNow();
+    }
+
+    private static final class Topic {
+
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        // Shared by all topics of the same kind
+        private final LongAdder published;
+
+        private Topic(LongAdder published) {
+            this.published = published;
+        }
+
+        private void publish(TodoChangeEvent event) {
+            published.increment();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    private final class Subscriber {
+
+        private final Consumer<List<TodoChangeEvent>> listener;
+        private final Queue<TodoChangeEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // When the pending drain was scheduled: for a listener that keeps up, when its oldest event arrived
+        private volatile long scheduledAt;
+        private volatile boolean overflowed;
+        private volatile boolean active = true;
+
+        private Subscriber(Consumer<List<TodoChangeEvent>> listener) {
+            this.listener = listener;
+        }
+
+        private void offer(TodoChangeEvent event) {
+            if (size.incrementAndGet() > queueCapacity) {
+                int discarded = overflowPolicy == OverflowPolicy.COALESCE ? size.get() - 1 : 1;
+                for (int i = 0; i < discarded && pending.poll() != null; i++) {
+                    size.decrementAndGet();
+                    droppedEvents.incrementAndGet();
+                }
+                overflowed = true;
+            }
+            pending.offer(event);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                scheduledAt = System.nanoTime();
+                if (batchWindowMillis > 0) {
+                    executor.schedule(this::drain, batchWindowMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+
+        // Runs on at most one pool thread at a time, which keeps delivery to this listener in order
+        private void drain() {
+            try {
+                List<TodoChangeEvent> batch = new ArrayList<>();
+                if (overflowed) {
+                    // The listener missed events, so it is told to reload before it sees the newer ones
+                    overflowed = false;
+                    batch.add(TodoChangeEvent.refresh());
+                }
+                TodoChangeEvent event;
+                while (batch.size() < queueCapacity && (event = pending.poll()) != null) {
+                    size.decrementAndGet();
+                    batch.add(event);
+                }
+                if (!batch.isEmpty()) {
+                    listener.accept(batch);
+                    deliveryTimer.record(System.nanoTime() - scheduledAt, TimeUnit.NANOSECONDS);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Broadcast listener failed", e);
+            } finally {
+                scheduled.set(false);
+                if (!pending.isEmpty() && active) {
+                    schedule();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,85 @@
+package app.todo.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV one row at a time: quoted fields may contain separators, doubled quotes and line
+ * breaks. Only the current row is held in memory.
+ */
+final class CsvRowReader implements Closeable {
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final BufferedReader in;
+    private final StringBuilder field = new StringBuilder();
+    private boolean started;
+
+    CsvRowReader(Reader in) {
+        this.in = new BufferedReader(in, 64 * 1024);
+    }
+
+    /**
+     * Returns the fields of the next row, or null at the end of the input.
+     */
+    String[] next() throws IOException {
+        List<String> fields = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean any = false;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (!started) {
+                started = true;
+                if (c == BYTE_ORDER_MARK) {
+                    continue;
+                }
+            }
+            any = true;
+            if (quoted) {
+                if (c == QUOTE) {
+                    in.mark(1);
+                    if (in.read() == QUOTE) {
+                        field.append(QUOTE);
+                    } else {
+                        in.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == QUOTE && field.isEmpty()) {
+                quoted = true;
+            } else if (c == SEPARATOR) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                in.mark(1);
+                if (in.read() != '\n') {
+                    in.reset();
+                }
+                break;
+            } else {
+                field.append((char) c);
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields.toArray(String[]::new);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
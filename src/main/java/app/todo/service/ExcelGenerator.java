@@ -1,37 +1,30 @@
 package app.todo.service;
 
 import app.todo.model.Todo;
-import com.vaadin.flow.server.StreamResource;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.time.format.DateTimeFormatter;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 @Service
 public class ExcelGenerator implements Serializable {
 
-    public StreamResource createExcelResource(Set<Todo> selectedTodos) {
-        return new StreamResource("todos.xlsx", () -> {
-            try {
-                return createExcelFile(selectedTodos);
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
-        });
-    }
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // Rows kept in memory; older ones are flushed to a compressed temp file
+    private static final int ROW_WINDOW = 100;
 
-    public InputStream createExcelFile(Set<Todo> selectedTodos) throws Exception {
-        try (Workbook workbook = new XSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+    public void writeExcel(Stream<Todo> todos, OutputStream out) throws IOException {
+        // Closing the workbook also deletes the temp files holding the flushed rows
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW)) {
+            workbook.setCompressTempFiles(true);
             Sheet sheet = workbook.createSheet("Todos");
             Row headerRow = sheet.createRow(0);
 
@@ -42,19 +35,19 @@ public class ExcelGenerator implements Serializable {
                 cell.setCellValue(headers[i]);
             }
 
-            // Create rows for selected todos
+            // Create rows as the todos are read
             int rowNum = 1;
-            for (Todo todo : selectedTodos) {
+            for (Iterator<Todo> it = todos.iterator(); it.hasNext(); ) {
+                Todo todo = it.next();
                 Row row = sheet.createRow(rowNum++);
                 row.createCell(0).setCellValue(todo.getTitle());
                 row.createCell(1).setCellValue(todo.getBody());
                 row.createCell(2).setCellValue(todo.getAuthor());
-                row.createCell(3).setCellValue(todo.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+                row.createCell(3).setCellValue(todo.getCreatedAt() == null ? "" : todo.getCreatedAt().format(DATE_FORMAT));
             }
 
-            // Write the Excel file to a byte array output stream
+            // Stream the Excel file straight to the caller
             workbook.write(out);
-            return new ByteArrayInputStream(out.toByteArray());
         }
     }
-}
\ No newline at end of file
+}
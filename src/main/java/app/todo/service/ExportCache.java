@@ -0,0 +1,295 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import com.vaadin.flow.server.StreamResource;
+import com.vaadin.flow.shared.Registration;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Keeps rendered exports of a selection so that downloading the same todos again costs no rendering.
+ * Entries are keyed by format plus every todo's id and version, evicted least recently used once the byte
+ * budget is exceeded, and dropped as soon as one of their todos is changed.
+ */
+@Service
+public class ExportCache {
+
+    @FunctionalInterface
+    public interface ExportWriter extends Serializable {
+        void write(Stream<Todo> todos, OutputStream out) throws IOException;
+    }
+
+    @Autowired
+    private Broadcastor broadcastor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByTodoId = new HashMap<>();
+    private long sizeBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Map<ExportFormat, TransferMeter> exportMeters = new EnumMap<>(ExportFormat.class);
+    private Registration changeRegistration;
+
+    public ExportCache(@Value("${todo.export.cache.max-bytes:67108864}") long maxBytes,
+                       @Value("${todo.export.cache.max-entry-bytes:8388608}") int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    @PostConstruct
+    void subscribe() {
+        for (ExportFormat format : ExportFormat.values()) {
+            exportMeters.put(format, new TransferMeter(meterRegistry, "todo.export",
+                    "format", format.getExtension(), "source", "selection"));
+        }
+        FunctionCounter.builder("todo.export.cache.requests", hits, LongAdder::sum).tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("todo.export.cache.requests", misses, LongAdder::sum).tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("todo.export.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("todo.export.cache.size", this, ExportCache::getSizeBytes).baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        changeRegistration = broadcastor.register(events -> events.forEach(this::onChange));
+    }
+
+    @PreDestroy
+    void unsubscribe() {
+        changeRegistration.remove();
+    }
+
+    /**
+     * Creates a download of the given todos that is served from the cache when the same todos, in the same
+     * versions, were exported in this format before.
+     */
+    public StreamResource createResource(ExportFormat format, Collection<Todo> todos, ExportWriter writer) {
+        List<Todo> snapshot = List.copyOf(todos);
+        String key = key(format, snapshot);
+        StreamResource resource = new StreamResource("todos." + format.getExtension(), (out, session) -> {
+            byte[] cached = get(key);
+            if (cached != null) {
+                out.write(cached);
+                return;
+            }
+            long startedAt = System.nanoTime();
+            CapturingOutputStream capture = new CapturingOutputStream(out, maxEntryBytes);
+            writer.write(snapshot.stream(), capture);
+            capture.flush();
+            // Only rendered exports are measured, downloads served from the cache cost nothing
+            exportMeters.get(format).record(capture.getWritten(), startedAt);
+            if (capture.isComplete()) {
+                put(key, snapshot, capture.toByteArray());
+            }
+        });
+        resource.setContentType(format.getContentType());
+        return resource;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.content;
+    }
+
+    synchronized void put(String key, Collection<Todo> todos, byte[] content) {
+        if (content.length > maxBytes || entries.containsKey(key)) {
+            return;
+        }
+        Set<String> todoIds = new HashSet<>();
+        for (Todo todo : todos) {
+            todoIds.add(todo.getId());
+            keysByTodoId.computeIfAbsent(todo.getId(), id -> new HashSet<>()).add(key);
+        }
+        entries.put(key, new Entry(content, todoIds));
+        sizeBytes += content.length;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            eldest.remove();
+            forget(evicted.getKey(), evicted.getValue());
+            evictions.increment();
+        }
+    }
+
+    synchronized void invalidate(String todoId) {
+        Set<String> keys = keysByTodoId.remove(todoId);
+        if (keys != null) {
+            for (String key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null) {
+                    forget(key, entry);
+                }
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        keysByTodoId.clear();
+        sizeBytes = 0;
+    }
+
+    private void onChange(TodoChangeEvent event) {
+        switch (event.getType()) {
+            case UPDATED, DELETED -> event.getTodoIds().forEach(this::invalidate);
+            case REFRESH -> invalidateAll();
+            // A new todo is not part of any cached selection
+            default -> {
+            }
+        }
+    }
+
+    private void forget(String key, Entry entry) {
+        sizeBytes -= entry.content.length;
+        for (String todoId : entry.todoIds) {
+            Set<String> keys = keysByTodoId.get(todoId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTodoId.remove(todoId);
+                }
+            }
+        }
+    }
+
+    static String key(ExportFormat format, Collection<Todo> todos) {
+        List<String> versionedIds = todos.stream()
+                .map(todo -> todo.getId() + ":" + todo.getVersion())
+                .sorted()
+                .toList();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(format.name().getBytes(StandardCharsets.UTF_8));
+            for (String versionedId : versionedIds) {
+                digest.update((byte) '\n');
+                digest.update(versionedId.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] content;
+        private final Set<String> todoIds;
+
+        private Entry(byte[] content, Set<String> todoIds) {
+            this.content = content;
+            this.todoIds = todoIds;
+        }
+    }
+
+    // Passes everything through and keeps a copy as long as it stays below the limit
+    private static final class CapturingOutputStream extends FilterOutputStream {
+
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private long written;
+
+        private CapturingOutputStream(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            written += len;
+            if (copy != null) {
+                if (copy.size() + len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        private long getWritten() {
+            return written;
+        }
+
+        private boolean isComplete() {
+            return copy != null;
+        }
+
+        private byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package app.todo.service;
+
+import lombok.Getter;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one background export, updated by the worker and read by the UI.
+ */
+@Getter
+public class ExportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String owner;
+    private final ExportFormat format;
+    private volatile Status status = Status.QUEUED;
+    private volatile long totalRows;
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private volatile String resultFileId;
+    private volatile String error;
+
+    ExportJob(String owner, ExportFormat format) {
+        this.owner = owner;
+        this.format = format;
+    }
+
+    public String getFileName() {
+        return "todos-" + id.substring(0, 8) + "." + format.getExtension();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public double getProgress() {
+        long total = totalRows;
+        return total == 0 ? (status == Status.DONE ? 1 : 0) : Math.min(1, rowsWritten.get() / (double) total);
+    }
+
+    long advance() {
+        return rowsWritten.incrementAndGet();
+    }
+
+    void start(long totalRows) {
+        this.totalRows = totalRows;
+        this.status = Status.RUNNING;
+    }
+
+    void complete(String resultFileId) {
+        this.resultFileId = resultFileId;
+        this.status = Status.DONE;
+    }
+
+    void fail(String error) {
+        this.error = error;
+        this.status = Status.FAILED;
+    }
+}
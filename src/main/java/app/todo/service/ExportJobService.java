@@ -0,0 +1,196 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Runs exports of whole filtered queries in the background and keeps the results in GridFS, so they
+ * survive a closed tab and can be downloaded again until they expire.
+ */
+@Service
+public class ExportJobService {
+
+    static final String EXPORT_KIND = "export";
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobService.class);
+    private static final Sort EXPORT_SORT = Sort.by(Sort.Direction.DESC, "createdAt");
+    // Progress is reported at most this often, in rows
+    private static final int PROGRESS_STEP_ROWS = 500;
+
+    @Autowired
+    private TodoService todoService;
+
+    @Autowired
+    private ExcelGenerator excelGenerator;
+
+    @Autowired
+    private GridFsTemplate gridFsTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ThreadPoolExecutor workers;
+    private final int maxJobsPerUser;
+    private final Duration retention;
+    private final Map<String, Semaphore> runningPerUser = new ConcurrentHashMap<>();
+    private final Map<ExportFormat, TransferMeter> exportMeters = new EnumMap<>(ExportFormat.class);
+
+    public ExportJobService(@Value("${todo.export.workers:2}") int workerCount,
+                            @Value("${todo.export.queue-capacity:20}") int queueCapacity,
+                            @Value("${todo.export.max-jobs-per-user:2}") int maxJobsPerUser,
+                            @Value("${todo.export.retention:PT24H}") Duration retention) {
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "export-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxJobsPerUser = maxJobsPerUser;
+        this.retention = retention;
+    }
+
+    /**
+     * Queues an export of every todo matching the filter. The listener is called from the worker thread
+     * whenever the job makes progress or finishes.
+     *
+     * @throws RejectedExecutionException if the user already runs the maximum number of exports or the
+     *                                    queue is full
+     */
+    public ExportJob submit(String owner, ExportFormat format, TodoFilter filter, Consumer<ExportJob> listener) {
+        Semaphore permits = runningPerUser.computeIfAbsent(owner, user -> new Semaphore(maxJobsPerUser));
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("You already have " + maxJobsPerUser + " exports running");
+        }
+        ExportJob job = new ExportJob(owner, format);
+        try {
+            workers.execute(() -> {
+                try {
+                    run(job, filter, listener);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw new RejectedExecutionException("Too many exports are queued, please try again later", e);
+        }
+        return job;
+    }
+
+    public List<GridFSFile> getExports(String owner) {
+        List<GridFSFile> exports = new ArrayList<>();
+        gridFsTemplate.find(Query.query(Criteria.where("metadata.kind").is(EXPORT_KIND).and("metadata.owner").is(owner))
+                .with(Sort.by(Sort.Direction.DESC, "uploadDate"))).forEach(exports::add);
+        return exports;
+    }
+
+    @Scheduled(fixedDelayString = "${todo.export.cleanup-interval-ms:600000}")
+    public void deleteExpiredExports() {
+        gridFsTemplate.delete(Query.query(Criteria.where("metadata.kind").is(EXPORT_KIND)
+                .and("metadata.expiresAt").lt(new Date())));
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        for (ExportFormat format : ExportFormat.values()) {
+            exportMeters.put(format, new TransferMeter(meterRegistry, "todo.export",
+                    "format", format.getExtension(), "source", "job"));
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void run(ExportJob job, TodoFilter filter, Consumer<ExportJob> listener) {
+        Path tempFile = null;
+        long startedAt = System.nanoTime();
+        try {
+            job.start(todoService.countTodos(filter));
+            notify(listener, job);
+
+            tempFile = Files.createTempFile("todo-export-", "." + job.getFormat().getExtension());
+            try (OutputStream out = Files.newOutputStream(tempFile);
+                 Stream<Todo> todos = todoService.streamTodos(filter, EXPORT_SORT).peek(todo -> {
+                     if (job.advance() % PROGRESS_STEP_ROWS == 0) {
+                         notify(listener, job);
+                     }
+                 })) {
+                if (job.getFormat() == ExportFormat.EXCEL) {
+                    excelGenerator.writeExcel(todos, out);
+                } else {
+                    PdfGenerator.writePdf(todos, out);
+                }
+            }
+
+            Document metadata = new Document("kind", EXPORT_KIND)
+                    .append("owner", job.getOwner())
+                    .append("jobId", job.getId())
+                    .append("expiresAt", Date.from(Instant.now().plus(retention)));
+            try (InputStream in = Files.newInputStream(tempFile)) {
+                ObjectId fileId = gridFsTemplate.store(in, job.getFileName(), job.getFormat().getContentType(), metadata);
+                job.complete(fileId.toHexString());
+            }
+            exportMeters.get(job.getFormat()).record(Files.size(tempFile), startedAt);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Export {} for {} failed", job.getId(), job.getOwner(), e);
+            job.fail(e.getMessage());
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    logger.warn("Could not delete {}", tempFile, e);
+                }
+            }
+        }
+        notify(listener, job);
+    }
+
+    // A listener whose tab has gone away must not take the export down with it
+    private static void notify(Consumer<ExportJob> listener, ExportJob job) {
+        try {
+            listener.accept(job);
+        } catch (RuntimeException e) {
+            logger.debug("Export progress listener failed", e);
+        }
+    }
+}
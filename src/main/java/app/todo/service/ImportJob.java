@@ -0,0 +1,86 @@
+package app.todo.service;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one background import, updated by the reader and the writers and read by the UI.
+ */
+@Getter
+public class ImportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    @lombok.Value
+    public static class RowError {
+        long row;
+        String message;
+    }
+
+    // Only the first errors are kept; the rest are counted
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final String id = UUID.randomUUID().toString();
+    private final String owner;
+    private final String fileName;
+    private volatile Status status = Status.QUEUED;
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsImported = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private final List<RowError> errors = new CopyOnWriteArrayList<>();
+    private volatile String error;
+
+    ImportJob(String owner, String fileName) {
+        this.owner = owner;
+        this.fileName = fileName;
+    }
+
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public long getRowsImported() {
+        return rowsImported.get();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    long read() {
+        return rowsRead.incrementAndGet();
+    }
+
+    void imported(long rows) {
+        rowsImported.addAndGet(rows);
+    }
+
+    void rejected(long row, String message) {
+        rowsFailed.incrementAndGet();
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new RowError(row, message));
+        }
+    }
+
+    void start() {
+        this.status = Status.RUNNING;
+    }
+
+    void complete() {
+        this.status = Status.DONE;
+    }
+
+    void fail(String error) {
+        this.error = error;
+        this.status = Status.FAILED;
+    }
+}
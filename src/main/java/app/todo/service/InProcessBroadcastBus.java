@@ -0,0 +1,61 @@
+package app.todo.service;
+
+import app.todo.model.BroadcastEvent;
+import com.vaadin.flow.shared.Registration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Bus for a single JVM. With one node there is nobody to forward to; several {@link Broadcastor}s sharing
+ * an instance behave like separate replicas, which is what the tests use it for.
+ */
+@Service
+@ConditionalOnProperty(name = "todo.broadcast.bus", havingValue = "in-process", matchIfMissing = true)
+public class InProcessBroadcastBus extends BatchingBroadcastBus {
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    public InProcessBroadcastBus() {
+        this(0, 1);
+    }
+
+    @Autowired
+    public InProcessBroadcastBus(@Value("${todo.broadcast.bus.flush-ms:50}") long flushMillis,
+                                 @Value("${todo.broadcast.bus.max-batch:500}") int maxBatchSize) {
+        super(flushMillis, maxBatchSize);
+    }
+
+    @Override
+    public Registration subscribe(String nodeId, Consumer<List<BroadcastEvent>> receiver) {
+        Subscription subscription = new Subscription(nodeId, receiver);
+        subscriptions.add(subscription);
+        return () -> subscriptions.remove(subscription);
+    }
+
+    @Override
+    protected void sendBatch(String nodeId, List<BroadcastEvent> events) {
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.nodeId.equals(nodeId)) {
+                subscription.receiver.accept(events);
+            }
+        }
+    }
+
+    private static final class Subscription {
+
+        private final String nodeId;
+        private final Consumer<List<BroadcastEvent>> receiver;
+
+        private Subscription(String nodeId, Consumer<List<BroadcastEvent>> receiver) {
+            this.nodeId = nodeId;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package app.todo.service;
+
+import app.todo.model.Attachment;
+import app.todo.model.AttachmentChangeEvent;
+import app.todo.model.BroadcastEvent;
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.vaadin.flow.shared.Registration;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Bus shared by all replicas through a capped collection: every flushed batch is one document, and each
+ * node follows the collection in insertion order with a tailable cursor. Works on a standalone mongod, no replica set needed.
+ */
+@Service
+@ConditionalOnProperty(name = "todo.broadcast.bus", havingValue = "mongo")
+public class MongoBroadcastBus extends BatchingBroadcastBus {
+
+    static final String COLLECTION = "todo_events";
+    private static final String ATTACHMENT_KIND = "attachment";
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoBroadcastBus.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final long collectionSizeBytes;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private Thread tailer;
+
+    @Autowired
+    public MongoBroadcastBus(MongoTemplate mongoTemplate,
+                             @Value("${todo.broadcast.bus.flush-ms:50}") long flushMillis,
+                             @Value("${todo.broadcast.bus.max-batch:500}") int maxBatchSize,
+                             @Value("${todo.broadcast.bus.mongo.collection-size:16777216}") long collectionSizeBytes) {
+        super(flushMillis, maxBatchSize);
+        this.mongoTemplate = mongoTemplate;
+        this.collectionSizeBytes = collectionSizeBytes;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!mongoTemplate.collectionExists(COLLECTION)) {
+            try {
+                mongoTemplate.createCollection(COLLECTION, CollectionOptions.empty().capped().size(collectionSizeBytes));
+            } catch (DataAccessException e) {
+                // Another replica created it in the meantime
+                if (!mongoTemplate.collectionExists(COLLECTION)) {
+                    throw e;
+                }
+            }
+        }
+        running = true;
+        tailer = new Thread(this::tail, "broadcast-bus-tail");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (tailer != null) {
+            tailer.interrupt();
+        }
+        super.close();
+    }
+
+    @Override
+    public Registration subscribe(String nodeId, Consumer<List<BroadcastEvent>> receiver) {
+        Subscription subscription = new Subscription(nodeId, receiver);
+        subscriptions.add(subscription);
+        return () -> subscriptions.remove(subscription);
+    }
+
+    @Override
+    protected void sendBatch(String nodeId, List<BroadcastEvent> events) {
+        List<Document> encoded = new ArrayList<>(events.size());
+        for (BroadcastEvent event : events) {
+            encoded.add(encode(event));
+        }
+        mongoTemplate.getCollection(COLLECTION).insertOne(new Document("node", nodeId).append("events", encoded));
+    }
+
+    private void tail() {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(COLLECTION);
+        // Only batches written after startup are of interest
+        Document newest = collection.find().sort(new Document("$natural", -1)).limit(1).first();
+        Object lastSeenId = newest == null ? null : newest.get("_id");
+        while (running) {
+            // The replicas make their own ObjectIds, which do not sort in insertion order across processes. So
+            // the cursor follows the collection in insertion order from the start and skips up to the last
+            // batch seen. That batch may have been overwritten in the meantime, then everything is new.
+            boolean skipping = lastSeenId != null && collection.countDocuments(Filters.eq("_id", lastSeenId)) > 0;
+            if (lastSeenId != null && !skipping) {
+                logger.warn("Change event batches were overwritten before this node read them");
+            }
+            try (MongoCursor<Document> cursor = collection.find()
+                    .cursorType(CursorType.TailableAwait)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .iterator()) {
+                while (running) {
+                    Document batch = cursor.tryNext();
+                    if (batch == null) {
+                        if (cursor.getServerCursor() == null) {
+                            // A tailable cursor on an empty collection dies right away
+                            break;
+                        }
+                        if (skipping) {
+                            // Overwritten while the cursor was on its way to it
+                            logger.warn("Change event batches were overwritten before this node read them");
+                            skipping = false;
+                        }
+                    } else if (skipping) {
+                        skipping = !lastSeenId.equals(batch.get("_id"));
+                    } else {
+                        lastSeenId = batch.get("_id");
+                        try {
+                            deliver(batch);
+                        } catch (RuntimeException e) {
+                            // Such as an event type this version does not know yet, during a rolling upgrade
+                            logger.warn("Could not deliver change event batch {}", lastSeenId, e);
+                        }
+                    }
+                }
+            } catch (MongoException e) {
+                if (running) {
+                    logger.warn("Lost the change event cursor, reopening it", e);
+                }
+            }
+            if (running) {
+                pause();
+            }
+        }
+    }
+
+    private void deliver(Document batch) {
+        String origin = batch.getString("node");
+        List<BroadcastEvent> events = new ArrayList<>();
+        for (Document event : batch.getList("events", Document.class)) {
+            events.add(decode(event));
+        }
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.nodeId.equals(origin)) {
+                subscription.receiver.accept(events);
+            }
+        }
+    }
+
+    private Document encode(BroadcastEvent broadcastEvent) {
+        if (broadcastEvent instanceof AttachmentChangeEvent change) {
+            Document encoded = new Document("kind", ATTACHMENT_KIND)
+                    .append("type", change.getType().name())
+                    .append("attachmentId", change.getAttachmentId());
+            if (change.getAttachment() != null) {
+                Document attachment = new Document();
+                mongoTemplate.getConverter().write(change.getAttachment(), attachment);
+                encoded.append("attachment", attachment);
+            }
+            return encoded;
+        }
+        TodoChangeEvent event = (TodoChangeEvent) broadcastEvent;
+        Document encoded = new Document("type", event.getType().name())
+                .append("todoId", event.getTodoId())
+                .append("todoIds", event.getTodoIds());
+        if (event.getPreviousAuthor() != null) {
+            encoded.append("previousAuthor", event.getPreviousAuthor());
+        }
+        if (event.getTodo() != null) {
+            Document todo = new Document();
+            mongoTemplate.getConverter().write(event.getTodo(), todo);
+            encoded.append("todo", todo);
+        }
+        return encoded;
+    }
+
+    // Todo events carry no kind, as they did before attachment events existed
+    private BroadcastEvent decode(Document encoded) {
+        if (ATTACHMENT_KIND.equals(encoded.getString("kind"))) {
+            Document attachment = encoded.get("attachment", Document.class);
+            return new AttachmentChangeEvent(AttachmentChangeEvent.Type.valueOf(encoded.getString("type")),
+                    encoded.getString("attachmentId"),
+                    attachment == null ? null : mongoTemplate.getConverter().read(Attachment.class, attachment));
+        }
+        Document todo = encoded.get("todo", Document.class);
+        return new TodoChangeEvent(TodoChangeEvent.Type.valueOf(encoded.getString("type")), encoded.getString("todoId"),
+                todo == null ? null : mongoTemplate.getConverter().read(Todo.class, todo),
+                List.copyOf(encoded.getList("todoIds", String.class, List.of())),
+                encoded.getString("previousAuthor"));
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static final class Subscription {
+
+        private final String nodeId;
+        private final Consumer<List<BroadcastEvent>> receiver;
+
+        private Subscription(String nodeId, Consumer<List<BroadcastEvent>> receiver) {
+            this.nodeId = nodeId;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -6,61 +6,56 @@ import com.itextpdf.kernel.pdf.PdfWriter;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.element.Table;
-import com.vaadin.flow.server.StreamResource;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.format.DateTimeFormatter;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 public class PdfGenerator {
 
-    public static StreamResource createPdfResource(Set<Todo> selectedTodos) {
-        return new StreamResource("todos.pdf", () -> {
-            try {
-                return createPdfFile(selectedTodos);
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
-        });
-    }
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // Rows added to the large table between two flushes to the document
+    private static final int FLUSH_EVERY_ROWS = 100;
 
-    private static InputStream createPdfFile(Set<Todo> selectedTodos) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        // Initialize PDF document
+    public static void writePdf(Stream<Todo> todos, OutputStream out) {
+        // Initialize PDF document directly on the download stream; the caller closes it
         PdfWriter writer = new PdfWriter(out);
+        writer.setCloseStream(false);
         PdfDocument pdfDoc = new PdfDocument(writer);
         Document document = new Document(pdfDoc);
 
         // Add title
         document.add(new Paragraph("Todo List Export"));
 
-        // Create a table with headers
-        Table table = new Table(4); // 4 columns for Created At, Title, Body, Author
+        // A large table is laid out and written page by page; header cells repeat on every page
+        Table table = new Table(4, true); // 4 columns for Title, Body, Author, Created At
 
         table.addHeaderCell("Title");
         table.addHeaderCell("Body");
         table.addHeaderCell("Author");
         table.addHeaderCell("Created At");
+        document.add(table);
 
-        // Add rows for selected todos
-        for (Todo todo : selectedTodos) {
-            table.addCell(todo.getTitle());
-            table.addCell(todo.getBody());
-            table.addCell(todo.getAuthor());
-            table.addCell(todo.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+        // Add rows as the todos are read, flushing finished pages as we go
+        int rows = 0;
+        for (Iterator<Todo> it = todos.iterator(); it.hasNext(); ) {
+            Todo todo = it.next();
+            table.addCell(nullToEmpty(todo.getTitle()));
+            table.addCell(nullToEmpty(todo.getBody()));
+            table.addCell(nullToEmpty(todo.getAuthor()));
+            table.addCell(todo.getCreatedAt() == null ? "" : todo.getCreatedAt().format(DATE_FORMAT));
+            if (++rows % FLUSH_EVERY_ROWS == 0) {
+                table.flush();
+            }
         }
-
-        // Add table to the document
-        document.add(table);
+        table.complete();
 
         // Close the document
         document.close();
+    }
 
-        // Return the InputStream containing the PDF data
-        return new ByteArrayInputStream(out.toByteArray());
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
     }
 }
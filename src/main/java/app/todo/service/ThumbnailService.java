@@ -0,0 +1,309 @@
+package app.todo.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders small PNG previews of image and PDF attachments in the background, stores them in GridFS linked
+ * from the file they show ({@code metadata.thumbnailId}) and serves them from a byte-bounded LRU cache, so
+ * browsing attachments never reads the files themselves. A file that cannot be rendered is marked
+ * ({@code metadata.thumbnailFailed}) and not tried again.
+ * <p>
+ * Metered as {@code todo.thumbnail.*}: the thumbnails made and failed, and the bytes held by the cache.
+ */
+@Service
+public class ThumbnailService {
+
+    static final String THUMBNAIL_KIND = "thumbnail";
+    static final String THUMBNAIL_ID_KEY = "thumbnailId";
+    static final String THUMBNAIL_FAILED_KEY = "thumbnailFailed";
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+    private static final Set<String> SUPPORTED_TYPES = Set.of("image/jpeg", "image/png", "application/pdf");
+    private static final String THUMBNAIL_CONTENT_TYPE = "image/png";
+
+    @Autowired
+    private GridFSBucket gridFSBucket;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ThreadPoolExecutor workers;
+    private final int size;
+    private final long maxCacheBytes;
+    private final Set<ObjectId> pending = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this
+    private final LinkedHashMap<ObjectId, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public ThumbnailService(@Value("${todo.thumbnail.workers:2}") int workerCount,
+                            @Value("${todo.thumbnail.queue-capacity:100}") int queueCapacity,
+                            @Value("${todo.thumbnail.size:160}") int size,
+                            @Value("${todo.thumbnail.cache.max-bytes:16777216}") long maxCacheBytes) {
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-worker");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.size = size;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        FunctionCounter.builder("todo.thumbnail.renders", generated, LongAdder::sum).tag("result", "generated")
+                .register(meterRegistry);
+        FunctionCounter.builder("todo.thumbnail.renders", failed, LongAdder::sum).tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("todo.thumbnail.cache.size", this, ThumbnailService::getCacheBytes).baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+    }
+
+    public static boolean isSupported(String contentType) {
+        return contentType != null && SUPPORTED_TYPES.contains(contentType);
+    }
+
+    /**
+     * Queues the thumbnail of a stored file. When the queue is full the thumbnail is made on its first request.
+     */
+    public void submit(ObjectId fileId, String contentType) {
+        if (!isSupported(contentType) || !pending.add(fileId)) {
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    generate(fileId, contentType);
+                } finally {
+                    pending.remove(fileId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(fileId);
+            logger.debug("Thumbnail queue full, deferring {}", fileId);
+        }
+    }
+
+    /**
+     * Returns the PNG thumbnail of a stored file, or null while there is none yet or if it cannot be made.
+     */
+    public byte[] getThumbnail(GridFSFile file) {
+        byte[] cached = getCached(file.getObjectId());
+        if (cached != null) {
+            return cached;
+        }
+        Document metadata = file.getMetadata();
+        if (metadata != null && metadata.getBoolean(THUMBNAIL_FAILED_KEY, false)) {
+            return null;
+        }
+        ObjectId thumbnailId = metadata == null ? null : metadata.getObjectId(THUMBNAIL_ID_KEY);
+        if (thumbnailId == null) {
+            submit(file.getObjectId(), metadata == null ? null : metadata.getString(AttachmentService.CONTENT_TYPE_KEY));
+            return null;
+        }
+        try (GridFSDownloadStream in = gridFSBucket.openDownloadStream(thumbnailId)) {
+            byte[] thumbnail = in.readAllBytes();
+            cache(file.getObjectId(), thumbnail);
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read thumbnail {} of {}", thumbnailId, file.getObjectId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the thumbnail of a file that has been deleted.
+     */
+    public void delete(ObjectId fileId, Document fileMetadata) {
+        synchronized (this) {
+            byte[] removed = cache.remove(fileId);
+            if (removed != null) {
+                cacheBytes -= removed.length;
+            }
+        }
+        ObjectId thumbnailId = fileMetadata == null ? null : fileMetadata.getObjectId(THUMBNAIL_ID_KEY);
+        if (thumbnailId != null) {
+            gridFSBucket.delete(thumbnailId);
+        }
+    }
+
+    private synchronized long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void generate(ObjectId fileId, String contentType) {
+        try {
+            BufferedImage image;
+            try (InputStream in = gridFSBucket.openDownloadStream(fileId)) {
+                image = "application/pdf".equals(contentType) ? renderFirstPage(in) : readScaledDown(in);
+            }
+            if (image == null) {
+                logger.warn("No image could be read from {}", fileId);
+                markFailed(fileId);
+                return;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(scale(image), "png", out);
+            byte[] thumbnail = out.toByteArray();
+
+            GridFSUploadOptions options = new GridFSUploadOptions().metadata(new Document("kind", THUMBNAIL_KIND)
+                    .append(AttachmentService.CONTENT_TYPE_KEY, THUMBNAIL_CONTENT_TYPE)
+                    .append("source", fileId));
+            ObjectId thumbnailId = gridFSBucket.uploadFromStream("thumbnail-" + fileId.toHexString() + ".png",
+                    new ByteArrayInputStream(thumbnail), options);
+            long linked = mongoTemplate.getCollection(AttachmentService.FILES_COLLECTION).updateOne(
+                    Filters.and(Filters.eq("_id", fileId), Filters.exists("metadata." + THUMBNAIL_ID_KEY, false)),
+                    Updates.set("metadata." + THUMBNAIL_ID_KEY, thumbnailId)).getModifiedCount();
+            if (linked == 0) {
+                // The file was deleted meanwhile or already has a thumbnail
+                gridFSBucket.delete(thumbnailId);
+                return;
+            }
+            cache(fileId, thumbnail);
+            generated.increment();
+        } catch (MongoException e) {
+            // Most likely passing, so the next request tries again
+            failed.increment();
+            logger.warn("Could not create thumbnail of {}", fileId, e);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not create thumbnail of {}", fileId, e);
+            markFailed(fileId);
+        }
+    }
+
+    // The file cannot be decoded, which will not change, so it is not downloaded for another try
+    private void markFailed(ObjectId fileId) {
+        failed.increment();
+        try {
+            mongoTemplate.getCollection(AttachmentService.FILES_COLLECTION).updateOne(Filters.eq("_id", fileId),
+                    Updates.set("metadata." + THUMBNAIL_FAILED_KEY, true));
+        } catch (MongoException e) {
+            logger.warn("Could not mark thumbnail of {} as failed", fileId, e);
+        }
+    }
+
+    private BufferedImage renderFirstPage(InputStream in) throws IOException {
+        try (PDDocument document = Loader.loadPDF(new RandomAccessReadBuffer(in))) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle page = document.getPage(0).getCropBox();
+            float scale = size / Math.max(page.getWidth(), page.getHeight());
+            return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    // Decodes only every n-th pixel of large images, so a big photo never has to fit in memory at full size
+    private BufferedImage readScaledDown(InputStream in) throws IOException {
+        try (ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageIn, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double factor = Math.min(1, size / (double) Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the thumbnail of a stored file if it is cached, without looking at the file.
+     */
+    synchronized byte[] getCached(ObjectId fileId) {
+        return cache.get(fileId);
+    }
+
+    private synchronized void cache(ObjectId fileId, byte[] thumbnail) {
+        byte[] previous = cache.put(fileId, thumbnail);
+        cacheBytes += thumbnail.length - (previous == null ? 0 : previous.length);
+        for (Iterator<Map.Entry<ObjectId, byte[]>> it = cache.entrySet().iterator();
+             cacheBytes > maxCacheBytes && it.hasNext(); ) {
+            cacheBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import com.mongodb.bulk.BulkWriteError;
+import jakarta.annotation.PreDestroy;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Imports todos from .xlsx or CSV files in the background. The file is read as a stream of rows (the SAX
+ * event API for Excel), rows are validated and collected into batches, and batches are written by several
+ * writers with unordered bulk inserts. The reader waits while the writers are a few batches behind, so memory
+ * use stays the same whatever the size of the file.
+ */
+@Service
+public class TodoImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TodoImportService.class);
+    // Progress is reported at most this often, in rows
+    private static final int PROGRESS_STEP_ROWS = 1_000;
+    private static final DateTimeFormatter EXPORT_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @Autowired
+    private TodoService todoService;
+
+    private final ThreadPoolExecutor readers;
+    private final ExecutorService writers;
+    private final int writerCount;
+    private final int batchSize;
+
+    public TodoImportService(@Value("${todo.import.workers:1}") int workerCount,
+                             @Value("${todo.import.queue-capacity:10}") int queueCapacity,
+                             @Value("${todo.import.writers:4}") int writerCount,
+                             @Value("${todo.import.batch-size:1000}") int batchSize,
+                             @Value("${todo.bulk.batch-size:1000}") int bulkBatchSize) {
+        this.readers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "import-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writers = Executors.newFixedThreadPool(writerCount, runnable -> {
+            Thread thread = new Thread(runnable, "import-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writerCount = writerCount;
+        // One import batch is one bulk write, so the write errors point at rows of that batch
+        this.batchSize = Math.min(batchSize, bulkBatchSize);
+    }
+
+    /**
+     * Queues an import of the given file, which is deleted once it has been read. Todos without an author
+     * get the owner. The listener is called from the reader thread whenever the job makes progress or finishes.
+     *
+     * @throws RejectedExecutionException if too many imports are queued
+     */
+    public ImportJob submit(String owner, Path file, String fileName, Consumer<ImportJob> listener) {
+        ImportJob job = new ImportJob(owner, fileName);
+        try {
+            readers.execute(() -> run(job, file, listener));
+        } catch (RejectedExecutionException e) {
+            deleteQuietly(file);
+            throw new RejectedExecutionException("Too many imports are queued, please try again later", e);
+        }
+        return job;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        readers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    private void run(ImportJob job, Path file, Consumer<ImportJob> listener) {
+        ImportRun importRun = new ImportRun(job, listener);
+        try {
+            job.start();
+            notify(listener, job);
+            if (job.getFileName().toLowerCase(Locale.ROOT).endsWith(".xlsx")) {
+                readXlsx(file, importRun::row);
+            } else {
+                readCsv(file, importRun::row);
+            }
+            importRun.finish();
+            if (job.getStatus() != ImportJob.Status.FAILED) {
+                job.complete();
+            }
+        } catch (Exception e) {
+            logger.error("Import {} of {} for {} failed", job.getId(), job.getFileName(), job.getOwner(), e);
+            job.fail(e.getMessage());
+        } finally {
+            deleteQuietly(file);
+        }
+        notify(listener, job);
+    }
+
+    private interface RowHandler {
+        void row(long rowNumber, String[] cells);
+    }
+
+    private static void readCsv(Path file, RowHandler handler) throws IOException {
+        try (CsvRowReader reader = new CsvRowReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            long rowNumber = 0;
+            String[] cells;
+            while ((cells = reader.next()) != null) {
+                handler.row(++rowNumber, cells);
+            }
+        }
+    }
+
+    // Our own exports use inline strings; a shared strings table, if present, is the one part held in memory
+    private static void readXlsx(Path file, RowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null,
+                        new ReadOnlySharedStringsTable(pkg), new SheetRows(handler), new DataFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+        }
+    }
+
+    private static final class SheetRows implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final RowHandler handler;
+        private final List<String> cells = new ArrayList<>();
+
+        private SheetRows(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            handler.row(rowNum + 1L, cells.toArray(String[]::new));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // Empty cells are not reported, so the column comes from the reference
+            int column = cellReference == null ? cells.size() : new CellReference(cellReference).getCol();
+            while (cells.size() < column) {
+                cells.add(null);
+            }
+            cells.add(formattedValue);
+        }
+    }
+
+    /**
+     * One import on its way from the reader to the writers.
+     */
+    private final class ImportRun {
+
+        private final ImportJob job;
+        private final Consumer<ImportJob> listener;
+        // Batches read but not yet written; acquiring a permit is what makes the reader wait
+        private final Semaphore inFlight = new Semaphore(writerCount * 2);
+        private Map<String, Integer> columns;
+        private List<Todo> batch = new ArrayList<>(batchSize);
+        private List<Long> batchRows = new ArrayList<>(batchSize);
+
+        private ImportRun(ImportJob job, Consumer<ImportJob> listener) {
+            this.job = job;
+            this.listener = listener;
+        }
+
+        private void row(long rowNumber, String[] cells) {
+            if (job.getStatus() == ImportJob.Status.FAILED) {
+                throw new IllegalStateException("Import aborted: " + job.getError());
+            }
+            if (isBlank(cells)) {
+                return;
+            }
+            if (columns == null) {
+                columns = readHeader(cells);
+                return;
+            }
+            if (job.read() % PROGRESS_STEP_ROWS == 0) {
+                TodoImportService.notify(listener, job);
+            }
+            Todo todo;
+            try {
+                todo = toTodo(cells);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                job.rejected(rowNumber, e.getMessage());
+                return;
+            }
+            batch.add(todo);
+            batchRows.add(rowNumber);
+            if (batch.size() == batchSize) {
+                write();
+            }
+        }
+
+        private void finish() throws InterruptedException {
+            if (columns == null) {
+                throw new IllegalArgumentException("The file is empty");
+            }
+            if (!batch.isEmpty()) {
+                write();
+            }
+            // Every permit back means every batch has been written
+            inFlight.acquire(writerCount * 2);
+        }
+
+        private void write() {
+            List<Todo> todos = batch;
+            List<Long> rows = batchRows;
+            batch = new ArrayList<>(batchSize);
+            batchRows = new ArrayList<>(batchSize);
+            inFlight.acquireUninterruptibly();
+            writers.execute(() -> {
+                try {
+                    todoService.saveTodos(todos);
+                    job.imported(todos.size());
+                } catch (BulkOperationException e) {
+                    for (BulkWriteError error : e.getErrors()) {
+                        job.rejected(rows.get(error.getIndex()), error.getMessage());
+                    }
+                    // saveTodos only leaves the ids of the todos that went in
+                    job.imported(todos.stream().filter(todo -> todo.getId() != null).count());
+                } catch (RuntimeException e) {
+                    logger.error("Import {} could not write a batch", job.getId(), e);
+                    job.fail(e.getMessage());
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        private Map<String, Integer> readHeader(String[] cells) {
+            Map<String, Integer> header = new HashMap<>();
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null) {
+                    // "Created At" from the Excel export and "createdAt" from the CSV export alike
+                    header.putIfAbsent(cells[i].replaceAll("[^A-Za-z]", "").toLowerCase(Locale.ROOT), i);
+                }
+            }
+            if (!header.containsKey("title")) {
+                throw new IllegalArgumentException("The first row has no Title column");
+            }
+            return header;
+        }
+
+        private Todo toTodo(String[] cells) {
+            String title = cell(cells, "title");
+            if (!StringUtils.hasText(title)) {
+                throw new IllegalArgumentException("Title is missing");
+            }
+            String author = cell(cells, "author");
+            String createdAt = cell(cells, "createdat");
+            return Todo.builder()
+                    .title(title.trim())
+                    .body(cell(cells, "body"))
+                    .author(StringUtils.hasText(author) ? author.trim() : job.getOwner())
+                    .userId(cell(cells, "userid"))
+                    .createdAt(StringUtils.hasText(createdAt) ? parseDateTime(createdAt.trim()) : LocalDateTime.now())
+                    .build();
+        }
+
+        private String cell(String[] cells, String column) {
+            Integer index = columns.get(column);
+            return index == null || index >= cells.length ? null : cells[index];
+        }
+    }
+
+    private static LocalDateTime parseDateTime(String value) {
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            // Formats written by our own exports
+        }
+        try {
+            return LocalDateTime.parse(value, EXPORT_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return LocalDate.parse(value).atStartOfDay();
+        }
+    }
+
+    private static boolean isBlank(String[] cells) {
+        for (String cell : cells) {
+            if (StringUtils.hasText(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}", file, e);
+        }
+    }
+
+    // A listener whose tab has gone away must not take the import down with it
+    private static void notify(Consumer<ImportJob> listener, ImportJob job) {
+        try {
+            listener.accept(job);
+        } catch (RuntimeException e) {
+            logger.debug("Import progress listener failed", e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import app.todo.model.TodoFilter;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Read-through cache of todo query results. Concurrent misses for the same query share one load, entries
+ * expire after the TTL, and the least recently used entry goes once the cache is full. A change of a todo
+ * drops every cached result of a query the todo matches, now or before the change, so that the other pages
+ * and the count of such a query go as well.
+ */
+class TodoQueryCache {
+
+    enum Kind {
+        LIST,
+        SLICE,
+        COUNT
+    }
+
+    /**
+     * Which todos a query selects; every page and the count of one query share a scope.
+     */
+    record Scope(TodoFilter filter, String userId) {
+
+        boolean matches(Todo todo) {
+            return (userId == null || userId.equals(todo.getUserId())) && filter.matches(todo);
+        }
+    }
+
+    record Key(Kind kind, Scope scope, Pageable pageable) {
+    }
+
+    private static final class Entry {
+
+        private final Key key;
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+        private volatile long loadedAt;
+        private volatile long lastAccess = System.nanoTime();
+        private volatile Set<String> todoIds = Set.of();
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+
+        private boolean isLoading() {
+            return !value.isDone();
+        }
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    TodoQueryCache(int maxEntries, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(Key key, Supplier<T> loader) {
+        Entry entry = entries.get(key);
+        Entry created = null;
+        if (entry == null || isExpired(entry)) {
+            Entry candidate = new Entry(key);
+            entry = entries.compute(key, (k, current) -> current == null || isExpired(current) ? candidate : current);
+            created = entry == candidate ? candidate : null;
+        }
+        if (created == null) {
+            hits.increment();
+            entry.lastAccess = System.nanoTime();
+            try {
+                return (T) entry.value.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        misses.increment();
+        T value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException e) {
+            entries.remove(key, created);
+            created.value.completeExceptionally(e);
+            throw e;
+        }
+        created.todoIds = todoIds(value);
+        created.loadedAt = System.nanoTime();
+        created.value.complete(value);
+        if (entries.size() > maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+        return value;
+    }
+
+    void invalidate(TodoChangeEvent event) {
+        Todo todo = event.getTodo();
+        if (todo == null) {
+            // Bulk changes and refreshes do not say what the todos look like, so any query may be affected
+            invalidateAll();
+            return;
+        }
+        Set<Scope> affected = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (entry.todoIds.contains(todo.getId()) || entry.key.scope().matches(todo)) {
+                affected.add(entry.key.scope());
+            }
+        }
+        // A load still running may have read the todo before the change
+        invalidations.increment();
+        entries.values().removeIf(entry -> entry.isLoading() || affected.contains(entry.key.scope()));
+    }
+
+    void invalidateAll() {
+        invalidations.increment();
+        entries.clear();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return !entry.isLoading() && System.nanoTime() - entry.loadedAt > ttlNanos;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        entries.values().stream()
+                .filter(entry -> !entry.isLoading())
+                .min((a, b) -> Long.compare(a.lastAccess, b.lastAccess))
+                .ifPresent(entry -> {
+                    if (entries.remove(entry.key, entry)) {
+                        evictions.increment();
+                    }
+                });
+    }
+
+    private static Set<String> todoIds(Object value) {
+        Collection<?> todos = value instanceof Slice<?> slice ? slice.getContent()
+                : value instanceof Collection<?> collection ? collection : null;
+        if (todos == null) {
+            return Set.of();
+        }
+        return todos.stream().map(todo -> ((Todo) todo).getId()).collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,508 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-process inverted index over todo titles and bodies. Every term maps to a posting list of document
+ * numbers and term frequencies held in int arrays, with title occurrences weighted above body ones. A
+ * changed todo gets a new document number appended to its terms' lists while the old one is only marked
+ * dead, which keeps every list sorted without moving anything; the lists are compacted once the dead
+ * documents outnumber the live ones.
+ * <p>
+ * A query matches the todos containing all of its words, the last one also as a prefix so that results
+ * follow typing, and ranks them by a BM25 weight of the words they contain.
+ */
+class TodoSearchIndex {
+
+    record Hits(int total, List<String> todoIds) {
+    }
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int MAX_TERM_LENGTH = 64;
+    // Keeps a one-letter prefix from turning into a union of the whole vocabulary
+    private static final int MAX_PREFIX_TERMS = 256;
+    private static final float PREFIX_WEIGHT = 0.8f;
+    private static final float K1 = 1.2f;
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    private static final class Postings {
+
+        private int[] docs = new int[2];
+        private int[] freqs = new int[2];
+        private int size;
+
+        private void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+
+        // Drops dead documents and renumbers the others; the remapping keeps the order
+        private int compact(int[] remap) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = remap[docs[i]];
+                if (doc >= 0) {
+                    docs[kept] = doc;
+                    freqs[kept] = freqs[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return size;
+        }
+    }
+
+    private static final class Data {
+
+        private final Map<String, Postings> terms = new HashMap<>();
+        // Sorted copy of the terms, only touched when a term comes or goes, for prefix lookups
+        private final TreeSet<String> vocabulary = new TreeSet<>();
+        private final Map<String, Integer> docsByTodoId = new HashMap<>();
+        private final BitSet live = new BitSet();
+        private String[] todoIds = new String[1024];
+        private int nextDoc;
+        private int liveDocs;
+
+        private void put(String todoId, Map<String, int[]> termFreqs) {
+            remove(todoId);
+            if (nextDoc == todoIds.length) {
+                todoIds = Arrays.copyOf(todoIds, nextDoc * 2);
+            }
+            int doc = nextDoc++;
+            todoIds[doc] = todoId;
+            docsByTodoId.put(todoId, doc);
+            live.set(doc);
+            liveDocs++;
+            termFreqs.forEach((term, freq) -> terms.computeIfAbsent(term, key -> {
+                vocabulary.add(key);
+                return new Postings();
+            }).add(doc, freq[0]));
+        }
+
+        private void remove(String todoId) {
+            Integer doc = docsByTodoId.remove(todoId);
+            if (doc != null) {
+                live.clear(doc);
+                todoIds[doc] = null;
+                liveDocs--;
+                if (nextDoc - liveDocs > Math.max(liveDocs, MIN_DEAD_TO_COMPACT)) {
+                    compact();
+                }
+            }
+        }
+
+        private void compact() {
+            int[] remap = new int[nextDoc];
+            String[] compacted = new String[Math.max(1024, liveDocs * 2)];
+            int next = 0;
+            for (int doc = 0; doc < nextDoc; doc++) {
+                if (live.get(doc)) {
+                    compacted[next] = todoIds[doc];
+                    docsByTodoId.put(todoIds[doc], next);
+                    remap[doc] = next++;
+                } else {
+                    remap[doc] = -1;
+                }
+            }
+            terms.entrySet().removeIf(term -> {
+                boolean empty = term.getValue().compact(remap) == 0;
+                if (empty) {
+                    vocabulary.remove(term.getKey());
+                }
+                return empty;
+            });
+            todoIds = compacted;
+            live.clear();
+            live.set(0, next);
+            nextDoc = next;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private Data data = new Data();
+    // Changes made while a rebuild reads the todos, applied to the new data before it takes over
+    private List<Consumer<Data>> pendingChanges;
+
+    void put(Todo todo) {
+        Map<String, int[]> termFreqs = termFreqs(todo);
+        String todoId = todo.getId();
+        write(data -> data.put(todoId, termFreqs));
+    }
+
+    void putAll(Collection<Todo> todos) {
+        Map<String, Map<String, int[]>> termFreqsById = new HashMap<>();
+        todos.forEach(todo -> termFreqsById.put(todo.getId(), termFreqs(todo)));
+        write(data -> termFreqsById.forEach(data::put));
+    }
+
+    void remove(Collection<String> todoIds) {
+        List<String> removed = List.copyOf(todoIds);
+        write(data -> removed.forEach(data::remove));
+    }
+
+    /**
+     * Indexes the given todos from scratch and then replaces the current index, which keeps serving
+     * searches and taking changes in the meantime.
+     */
+    synchronized void rebuild(Stream<Todo> todos) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            writeLock.unlock();
+        }
+        Data rebuilt = null;
+        try {
+            Data fresh = new Data();
+            todos.forEach(todo -> fresh.put(todo.getId(), termFreqs(todo)));
+            rebuilt = fresh;
+        } finally {
+            writeLock.lock();
+            try {
+                if (rebuilt != null) {
+                    for (Consumer<Data> change : pendingChanges) {
+                        change.accept(rebuilt);
+                    }
+                    data = rebuilt;
+                }
+                pendingChanges = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    Hits search(String text, int offset, int limit) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(tokens(text)));
+        if (words.isEmpty()) {
+            return new Hits(0, List.of());
+        }
+        // A trailing blank means the last word is complete
+        boolean lastIsPrefix = !Character.isWhitespace(text.charAt(text.length() - 1));
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return search(words, lastIsPrefix, offset, limit);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    boolean contains(String todoId) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return data.docsByTodoId.containsKey(todoId);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    int size() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return data.liveDocs;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Guarded by the read lock
+    private Hits search(List<String> words, boolean lastIsPrefix, int offset, int limit) {
+        List<Postings[]> groups = new ArrayList<>();
+        List<float[]> groupWeights = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            List<String> matches = lastIsPrefix && i == words.size() - 1
+                    ? data.vocabulary.subSet(word, word + Character.MAX_VALUE).stream().limit(MAX_PREFIX_TERMS).toList()
+                    : data.terms.containsKey(word) ? List.of(word) : List.of();
+            if (matches.isEmpty()) {
+                return new Hits(0, List.of());
+            }
+            Postings[] postings = new Postings[matches.size()];
+            float[] weights = new float[matches.size()];
+            for (int j = 0; j < postings.length; j++) {
+                postings[j] = data.terms.get(matches.get(j));
+                weights[j] = idf(postings[j]) * (matches.get(j).equals(word) ? 1 : PREFIX_WEIGHT);
+            }
+            groups.add(postings);
+            groupWeights.add(weights);
+        }
+
+        // Candidates come from the word with the fewest postings; the others can only narrow them down
+        Integer[] order = IntStream.range(0, groups.size()).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, (a, b) -> Long.compare(postingCount(groups.get(a)), postingCount(groups.get(b))));
+        Postings[] smallest = groups.get(order[0]);
+        float[] smallestWeights = groupWeights.get(order[0]);
+        int[] docs;
+        float[] scores;
+        int count = 0;
+        if (smallest.length == 1) {
+            Postings list = smallest[0];
+            docs = new int[list.size];
+            scores = new float[list.size];
+            for (int i = 0; i < list.size; i++) {
+                if (data.live.get(list.docs[i])) {
+                    docs[count] = list.docs[i];
+                    scores[count] = smallestWeights[0] * tf(list.freqs[i]);
+                    count++;
+                }
+            }
+        } else {
+            long[] candidates = union(smallest, smallestWeights);
+            count = candidates.length;
+            docs = new int[count];
+            scores = new float[count];
+            for (int i = 0; i < count; i++) {
+                docs[i] = (int) (candidates[i] >>> 32);
+                scores[i] = Float.intBitsToFloat((int) candidates[i]);
+            }
+        }
+        for (int g = 1; g < order.length && count > 0; g++) {
+            count = intersect(docs, scores, count, groups.get(order[g]), groupWeights.get(order[g]));
+        }
+        return new Hits(count, top(docs, scores, count, offset, limit));
+    }
+
+    // The live documents of several terms, sorted, every one once with the score of all its matching terms.
+    // The longest list is already sorted, so only the others are sorted and then merged into it
+    private long[] union(Postings[] postings, float[] weights) {
+        int longest = 0;
+        int others = 0;
+        for (int p = 0; p < postings.length; p++) {
+            others += postings[p].size;
+            if (postings[p].size > postings[longest].size) {
+                longest = p;
+            }
+        }
+        others -= postings[longest].size;
+        long[] rest = new long[others];
+        int n = 0;
+        for (int p = 0; p < postings.length; p++) {
+            if (p != longest) {
+                n = appendLive(postings[p], weights[p], rest, n);
+            }
+        }
+        Arrays.sort(rest, 0, n);
+        long[] base = new long[postings[longest].size];
+        int baseSize = appendLive(postings[longest], weights[longest], base, 0);
+
+        long[] merged = new long[baseSize + n];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < baseSize || j < n) {
+            long next = j == n || (i < baseSize && base[i] >>> 32 <= rest[j] >>> 32) ? base[i++] : rest[j++];
+            if (size > 0 && merged[size - 1] >>> 32 == next >>> 32) {
+                float score = Float.intBitsToFloat((int) merged[size - 1]) + Float.intBitsToFloat((int) next);
+                merged[size - 1] = (next & 0xFFFFFFFF00000000L) | (Float.floatToIntBits(score) & 0xFFFFFFFFL);
+            } else {
+                merged[size++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    // Packs document and score into one long that sorts by document
+    private int appendLive(Postings list, float weight, long[] entries, int n) {
+        for (int i = 0; i < list.size; i++) {
+            if (data.live.get(list.docs[i])) {
+                float score = weight * tf(list.freqs[i]);
+                entries[n++] = ((long) list.docs[i] << 32) | (Float.floatToIntBits(score) & 0xFFFFFFFFL);
+            }
+        }
+        return n;
+    }
+
+    // Keeps the candidates found in any of the postings, adding their scores, and returns how many are left
+    private static int intersect(int[] docs, float[] scores, int count, Postings[] postings, float[] weights) {
+        float[] added = new float[count];
+        boolean[] matched = new boolean[count];
+        for (int p = 0; p < postings.length; p++) {
+            Postings list = postings[p];
+            int position = 0;
+            for (int c = 0; c < count && position < list.size; c++) {
+                position = advance(list.docs, position, list.size, docs[c]);
+                if (position < list.size && list.docs[position] == docs[c]) {
+                    added[c] += weights[p] * tf(list.freqs[position]);
+                    matched[c] = true;
+                }
+            }
+        }
+        int kept = 0;
+        for (int c = 0; c < count; c++) {
+            if (matched[c]) {
+                docs[kept] = docs[c];
+                scores[kept] = scores[c] + added[c];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    // Galloping search for the first position at or after from holding a document not below target
+    private static int advance(int[] docs, int from, int size, int target) {
+        if (docs[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        while (low + step < size && docs[low + step] < target) {
+            low += step;
+            step <<= 1;
+        }
+        int index = Arrays.binarySearch(docs, low + 1, Math.min(low + step, size), target);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // The requested page of the best candidates, found with a bounded heap rather than a full sort
+    private List<String> top(int[] docs, float[] scores, int count, int offset, int limit) {
+        int k = (int) Math.min((long) offset + limit, count);
+        if (k <= offset) {
+            return List.of();
+        }
+        int[] heap = new int[k];
+        int size = 0;
+        // Newest first: with scores tied, as they mostly are, later candidates then rarely displace the heap's root
+        for (int c = count - 1; c >= 0; c--) {
+            if (size < k) {
+                heap[size] = c;
+                siftUp(heap, size++, docs, scores);
+            } else if (ranksBefore(c, heap[0], docs, scores)) {
+                heap[0] = c;
+                siftDown(heap, size, docs, scores);
+            }
+        }
+        Integer[] ranked = IntStream.of(heap).boxed().toArray(Integer[]::new);
+        Arrays.sort(ranked, (a, b) -> ranksBefore(a, b, docs, scores) ? -1 : ranksBefore(b, a, docs, scores) ? 1 : 0);
+        List<String> todoIds = new ArrayList<>(k - offset);
+        for (int i = offset; i < k; i++) {
+            todoIds.add(data.todoIds[docs[ranked[i]]]);
+        }
+        return todoIds;
+    }
+
+    // Higher score first, then the more recently indexed document
+    private static boolean ranksBefore(int a, int b, int[] docs, float[] scores) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+    }
+
+    // Min-heap on rank: the root is the worst of the best k
+    private static void siftUp(int[] heap, int index, int[] docs, float[] scores) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!ranksBefore(heap[parent], heap[index], docs, scores)) {
+                return;
+            }
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, int[] docs, float[] scores) {
+        int index = 0;
+        while (true) {
+            int worst = index;
+            for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                if (ranksBefore(heap[worst], heap[child], docs, scores)) {
+                    worst = child;
+                }
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(heap, worst, index);
+            index = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int swapped = heap[a];
+        heap[a] = heap[b];
+        heap[b] = swapped;
+    }
+
+    private float idf(Postings postings) {
+        // Dead documents still count until compaction, which only flattens the weights a little
+        double df = postings.size;
+        return (float) Math.log(1 + Math.max(0, data.liveDocs - df + 0.5) / (df + 0.5));
+    }
+
+    private static float tf(int freq) {
+        return freq * (K1 + 1) / (freq + K1);
+    }
+
+    private static long postingCount(Postings[] postings) {
+        long count = 0;
+        for (Postings list : postings) {
+            count += list.size;
+        }
+        return count;
+    }
+
+    private void write(Consumer<Data> change) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            change.accept(data);
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static Map<String, int[]> termFreqs(Todo todo) {
+        Map<String, int[]> termFreqs = new HashMap<>();
+        tokens(todo.getTitle()).forEach(term -> termFreqs.computeIfAbsent(term, key -> new int[1])[0] += TITLE_WEIGHT);
+        tokens(todo.getBody()).forEach(term -> termFreqs.computeIfAbsent(term, key -> new int[1])[0]++);
+        return termFreqs;
+    }
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
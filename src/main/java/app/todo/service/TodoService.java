@@ -1,50 +1,396 @@
 package app.todo.service;
 
 import app.todo.model.Todo;
-import app.todo.repo.TodoRepository;
-import com.mongodb.client.gridfs.GridFSFindIterable;
-import com.mongodb.client.gridfs.model.GridFSFile;
+import app.todo.model.TodoChangeEvent;
+import app.todo.model.TodoFilter;
+import app.todo.repo.MongoTodoStore;
+import app.todo.repo.TodoStore;
+import com.mongodb.bulk.BulkWriteError;
+import com.vaadin.flow.shared.Registration;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class TodoService {
 
+    private static final Logger logger = LoggerFactory.getLogger(TodoService.class);
+
+    @Autowired
+    private TodoStore todoStore;
+
+    // Only used by the write-behind, which commits straight to Mongo
     @Autowired
-    private TodoRepository todoRepository;
+    private MongoTemplate mongoTemplate;
 
     @Autowired
-    private GridFsTemplate gridFsTemplate;
+    private Broadcastor broadcastor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${todo.bulk.batch-size:1000}")
+    private int bulkBatchSize;
+
+    @Value("${todo.write-behind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    @Value("${todo.write-behind.queue-capacity:10000}")
+    private int writeBehindQueueCapacity;
+
+    @Value("${todo.write-behind.batch-size:500}")
+    private int writeBehindBatchSize;
+
+    @Value("${todo.write-behind.flush-ms:20}")
+    private long writeBehindFlushMillis;
+
+    @Value("${todo.write-behind.max-wait-ms:2000}")
+    private long writeBehindMaxWaitMillis;
+
+    @Value("${todo.query-cache.enabled:true}")
+    private boolean queryCacheEnabled;
+
+    @Value("${todo.query-cache.max-entries:1000}")
+    private int queryCacheMaxEntries;
+
+    @Value("${todo.query-cache.ttl:PT30S}")
+    private Duration queryCacheTtl;
+
+    @Value("${todo.search.enabled:true}")
+    private boolean searchEnabled;
+
+    private TodoWriteBehind writeBehind;
+    private TodoQueryCache queryCache;
+    private Registration queryCacheRegistration;
+    private TodoSearchIndex searchIndex;
+    private Registration searchIndexRegistration;
+    private ExecutorService searchIndexer;
+    private final AtomicBoolean searchRebuildPending = new AtomicBoolean();
+    private final Map<StoreCall, Timer> storeTimers = new EnumMap<>(StoreCall.class);
+    private Timer searchTimer;
+
+    // Store calls timed as todo.store, tagged with the call
+    private enum StoreCall {
+        FIND_ALL, FIND_BY_USER, FIND, FIND_BY_IDS, COUNT, STREAM, SAVE, INSERT, DELETE, DELETE_ALL
+    }
+
+    @PostConstruct
+    void start() {
+        for (StoreCall call : StoreCall.values()) {
+            storeTimers.put(call, Timer.builder("todo.store")
+                    .tag("call", call.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        searchTimer = Timer.builder("todo.search").register(meterRegistry);
+        if (queryCacheEnabled) {
+            queryCache = new TodoQueryCache(queryCacheMaxEntries, queryCacheTtl);
+            // Changes made on other replicas only arrive as events
+            queryCacheRegistration = broadcastor.register(events -> events.forEach(queryCache::invalidate));
+            FunctionCounter.builder("todo.query.cache.requests", queryCache, TodoQueryCache::getHits)
+                    .tag("result", "hit").register(meterRegistry);
+            FunctionCounter.builder("todo.query.cache.requests", queryCache, TodoQueryCache::getMisses)
+                    .tag("result", "miss").register(meterRegistry);
+            FunctionCounter.builder("todo.query.cache.evictions", queryCache, TodoQueryCache::getEvictions)
+                    .register(meterRegistry);
+            FunctionCounter.builder("todo.query.cache.invalidations", queryCache, TodoQueryCache::getInvalidations)
+                    .register(meterRegistry);
+            Gauge.builder("todo.query.cache.size", queryCache, TodoQueryCache::size).register(meterRegistry);
+        }
+        if (searchEnabled) {
+            searchIndex = new TodoSearchIndex();
+            searchIndexer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "todo-search-indexer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Changes from this node and the others alike, in the order they were published. Indexing runs on
+            // its own thread, so store reads for bulk changes never hold up the broadcast delivery pool
+            searchIndexRegistration = broadcastor.register(events ->
+                    searchIndexer.execute(() -> events.forEach(this::index)));
+            rebuildSearchIndex();
+        }
+        if (writeBehindEnabled) {
+            if (!(todoStore instanceof MongoTodoStore)) {
+                throw new IllegalStateException("todo.write-behind.enabled requires the Mongo todo store");
+            }
+            writeBehind = new TodoWriteBehind(mongoTemplate, this::publish, meterRegistry, writeBehindQueueCapacity,
+                    writeBehindBatchSize, writeBehindFlushMillis, writeBehindMaxWaitMillis);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (queryCacheRegistration != null) {
+            queryCacheRegistration.remove();
+        }
+        if (searchIndexRegistration != null) {
+            searchIndexRegistration.remove();
+            searchIndexer.shutdownNow();
+        }
+    }
 
     public List<Todo> getAllTodos() {
-        return todoRepository.findAll();
+        return cached(TodoQueryCache.Kind.LIST, TodoFilter.empty(), null, null,
+                () -> timed(StoreCall.FIND_ALL, todoStore::findAll));
     }
 
     public List<Todo> getAllTodosByUserId(String userId) {
-        return todoRepository.findByUserId(userId);
+        return cached(TodoQueryCache.Kind.LIST, TodoFilter.empty(), userId, null,
+                () -> timed(StoreCall.FIND_BY_USER, () -> todoStore.findByUserId(userId)));
+    }
+
+    public Slice<Todo> getTodos(Pageable pageable) {
+        return cached(TodoQueryCache.Kind.SLICE, TodoFilter.empty(), null, pageable,
+                () -> timed(StoreCall.FIND, () -> todoStore.find(TodoFilter.empty(), pageable)));
+    }
+
+    public Slice<Todo> getTodos(TodoFilter filter, Pageable pageable) {
+        return cached(TodoQueryCache.Kind.SLICE, filter, null, pageable,
+                () -> timed(StoreCall.FIND, () -> todoStore.find(filter, pageable)));
+    }
+
+    public long countTodos(TodoFilter filter) {
+        return cached(TodoQueryCache.Kind.COUNT, filter, null, null,
+                () -> timed(StoreCall.COUNT, () -> todoStore.count(filter)));
+    }
+
+    /**
+     * Streams every todo matching the filter, from a Mongo cursor unless the store is in memory. The caller
+     * has to close the stream. Only opening the cursor is timed, reading it is up to the caller.
+     */
+    public Stream<Todo> streamTodos(TodoFilter filter, Sort sort) {
+        return timed(StoreCall.STREAM, () -> todoStore.stream(filter, sort));
+    }
+
+    public Slice<Todo> getTodosByUserId(String userId, Pageable pageable) {
+        return cached(TodoQueryCache.Kind.SLICE, TodoFilter.empty(), userId, pageable,
+                () -> timed(StoreCall.FIND_BY_USER, () -> todoStore.findByUserId(userId, pageable)));
+    }
+
+    /**
+     * Ranked full-text search over titles and bodies, with the last word also matching as a prefix so that
+     * results follow typing. Finds nothing while the index is first built after startup.
+     */
+    public Slice<Todo> searchTodos(String text, Pageable pageable) {
+        if (searchIndex == null) {
+            return new SliceImpl<>(List.of(), pageable, false);
+        }
+        TodoSearchIndex.Hits hits = searchTimer.record(() ->
+                searchIndex.search(text, (int) pageable.getOffset(), pageable.getPageSize()));
+        Map<String, Todo> todos = timed(StoreCall.FIND_BY_IDS, () -> todoStore.findAllById(hits.todoIds())).stream()
+                .collect(Collectors.toMap(Todo::getId, Function.identity()));
+        List<Todo> page = hits.todoIds().stream().map(todos::get).filter(Objects::nonNull).toList();
+        return new SliceImpl<>(page, pageable, pageable.getOffset() + pageable.getPageSize() < hits.total());
     }
 
     public Todo saveTodo(Todo todo) {
-        return todoRepository.save(todo);
+        if (todo.getId() == null) {
+            Todo saved = timed(StoreCall.SAVE, () -> todoStore.save(todo));
+            publish(TodoChangeEvent.created(saved));
+            return saved;
+        }
+        // Read first, so that those following the old author hear about it if the author changes
+        String storedAuthor = timed(StoreCall.FIND_BY_IDS, () -> todoStore.findAllById(List.of(todo.getId()))).stream()
+                .findFirst().map(Todo::getAuthor).orElse(null);
+        Todo saved = timed(StoreCall.SAVE, () -> todoStore.save(todo));
+        publish(TodoChangeEvent.updated(saved, storedAuthor));
+        return saved;
+    }
+
+    /**
+     * Saves a todo. With write-behind enabled the save is queued and committed together with the saves
+     * arriving around the same time, and the future completes once Mongo has acknowledged it; otherwise the
+     * todo is saved right away.
+     */
+    public CompletableFuture<Todo> saveTodoAsync(Todo todo) {
+        if (writeBehind != null) {
+            return writeBehind.save(todo);
+        }
+        try {
+            return CompletableFuture.completedFuture(saveTodo(todo));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
     public void deleteTodo(Todo todo) {
-        todoRepository.delete(todo);
+        storeTimers.get(StoreCall.DELETE).record(() -> todoStore.delete(todo));
+        publish(TodoChangeEvent.deleted(todo));
+    }
+
+    /**
+     * Inserts new todos with unordered bulk writes of the configured batch size and publishes one event for
+     * all of them. Ids are assigned up front, so the returned todos carry them. If the insert fails, the todos
+     * that did not go in get their id and version taken away again and can be saved once more.
+     *
+     * @throws IllegalArgumentException if one of the todos has been saved before
+     */
+    public List<Todo> saveTodos(Collection<Todo> todos) {
+        todos.stream().filter(todo -> todo.getId() != null).findFirst().ifPresent(todo -> {
+            throw new IllegalArgumentException("Todo " + todo.getId() + " already exists");
+        });
+        List<Todo> saved = new ArrayList<>(todos.size());
+        List<Todo> batch = new ArrayList<>(Math.min(todos.size(), bulkBatchSize));
+        try {
+            for (Todo todo : todos) {
+                todo.setId(new ObjectId().toHexString());
+                // Bulk inserts do not initialize the version the way save() does
+                todo.setVersion(0L);
+                batch.add(todo);
+                if (batch.size() == bulkBatchSize) {
+                    insert(batch, saved);
+                }
+            }
+            if (!batch.isEmpty()) {
+                insert(batch, saved);
+            }
+        } finally {
+            if (saved.size() < todos.size()) {
+                forgetUnsaved(todos, saved);
+            }
+            if (!saved.isEmpty()) {
+                // The event only carries the ids, so the todos are indexed from here while they are at hand
+                if (searchIndex != null) {
+                    searchIndex.putAll(saved);
+                }
+                publish(TodoChangeEvent.created(saved));
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Deletes the todos with the given ids in a single round trip and publishes one event for all of them.
+     */
+    public long deleteTodos(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        long deleted = timed(StoreCall.DELETE_ALL, () -> todoStore.deleteAll(ids));
+        publish(TodoChangeEvent.deleted(ids));
+        return deleted;
+    }
+
+    private void insert(List<Todo> batch, List<Todo> saved) {
+        try {
+            storeTimers.get(StoreCall.INSERT).record(() -> todoStore.insertAll(batch));
+            saved.addAll(batch);
+        } catch (BulkOperationException e) {
+            // Unordered Mongo writes: everything but the failed ones went in
+            Set<Integer> failed = e.getErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+            for (int i = 0; i < batch.size(); i++) {
+                if (!failed.contains(i)) {
+                    saved.add(batch.get(i));
+                }
+            }
+            throw e;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    // Those of the failed batch that were rejected, and those after it that were never tried
+    private static void forgetUnsaved(Collection<Todo> todos, List<Todo> saved) {
+        Set<Todo> acknowledged = Collections.newSetFromMap(new IdentityHashMap<>());
+        acknowledged.addAll(saved);
+        for (Todo todo : todos) {
+            if (!acknowledged.contains(todo)) {
+                todo.setId(null);
+                todo.setVersion(null);
+            }
+        }
+    }
+
+    private void index(TodoChangeEvent event) {
+        switch (event.getType()) {
+            case CREATED, UPDATED -> {
+                if (event.getTodo() != null) {
+                    searchIndex.put(event.getTodo());
+                } else {
+                    // Bulk inserts only carry the ids; those made on this node are indexed already
+                    List<String> missing = event.getTodoIds().stream().filter(id -> !searchIndex.contains(id)).toList();
+                    if (!missing.isEmpty()) {
+                        searchIndex.putAll(timed(StoreCall.FIND_BY_IDS, () -> todoStore.findAllById(missing)));
+                    }
+                }
+            }
+            case DELETED -> searchIndex.remove(event.getTodoIds());
+            case REFRESH -> rebuildSearchIndex();
+        }
+    }
+
+    // Several refreshes arriving while a rebuild waits are served by that one rebuild
+    private void rebuildSearchIndex() {
+        if (searchRebuildPending.compareAndSet(false, true)) {
+            searchIndexer.execute(() -> {
+                searchRebuildPending.set(false);
+                long start = System.nanoTime();
+                try (Stream<Todo> todos = todoStore.stream(TodoFilter.empty(), Sort.unsorted())) {
+                    searchIndex.rebuild(todos);
+                    logger.info("Indexed {} todos for search in {} ms", searchIndex.size(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                } catch (RuntimeException e) {
+                    logger.error("Could not rebuild the todo search index", e);
+                }
+            });
+        }
+    }
+
+    private <T> T timed(StoreCall call, Supplier<T> storeCall) {
+        return storeTimers.get(call).record(storeCall);
     }
 
-    public List<GridFSFile> getAllFiles() {
-        GridFSFindIterable files = gridFsTemplate.find(new Query());
-        List<GridFSFile> fileList = new ArrayList<>();
-        files.forEach(fileList::add);
-        return fileList;
+    private <T> T cached(TodoQueryCache.Kind kind, TodoFilter filter, String userId, Pageable pageable, Supplier<T> loader) {
+        if (queryCache == null) {
+            return loader.get();
+        }
+        return queryCache.get(new TodoQueryCache.Key(kind, new TodoQueryCache.Scope(filter, userId), pageable), loader);
     }
 
-    public void deleteAllFiles() {
-        todoRepository.deleteAll();
+    // Cached results are dropped before anyone is told, so a reload triggered by the event sees the change
+    private void publish(TodoChangeEvent event) {
+        if (queryCache != null) {
+            queryCache.invalidate(event);
+        }
+        broadcastor.publish(event);
     }
 }
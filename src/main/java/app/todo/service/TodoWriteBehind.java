@@ -0,0 +1,319 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Group commit for todo saves: saves wait in a bounded queue and a single flusher writes everything that
+ * arrived within the flush window, or a full batch, as one unordered bulk write. A full queue makes callers
+ * wait for room, up to a limit, instead of letting saves pile up without bound.
+ * <p>
+ * Every save is one write with its own version check. A todo saved more than once within a flush window is
+ * written once per batch, in the order of the saves, so a save made from a stale version still fails.
+ * <p>
+ * Commits are timed as {@code todo.store} calls of their own, next to batch sizes, the queue depth and the
+ * saves rejected for lack of room.
+ */
+class TodoWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(TodoWriteBehind.class);
+
+    private record PendingSave(Todo todo, CompletableFuture<Todo> result) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final Consumer<TodoChangeEvent> publisher;
+    private final BlockingQueue<PendingSave> queue;
+    private final int batchSize;
+    private final long flushNanos;
+    private final long maxWaitMillis;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // Guarded by this: whether the flusher is waiting for saves, the only time close() may interrupt it
+    private boolean waiting;
+
+    private final LongAdder rejected = new LongAdder();
+    private final Timer commitTimer;
+    private final DistributionSummary batchSizes;
+
+    TodoWriteBehind(MongoTemplate mongoTemplate, Consumer<TodoChangeEvent> publisher, MeterRegistry meterRegistry,
+                    int queueCapacity, int batchSize, long flushMillis, long maxWaitMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.publisher = publisher;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.maxWaitMillis = maxWaitMillis;
+        this.commitTimer = Timer.builder("todo.store").tag("call", "write_behind").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("todo.write-behind.batch").register(meterRegistry);
+        Gauge.builder("todo.write-behind.queued", queue, BlockingQueue::size).register(meterRegistry);
+        FunctionCounter.builder("todo.write-behind.rejected", rejected, LongAdder::sum).register(meterRegistry);
+        this.flusher = new Thread(this::run, "todo-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    CompletableFuture<Todo> save(Todo todo) {
+        CompletableFuture<Todo> result = new CompletableFuture<>();
+        try {
+            if (!running || !queue.offer(new PendingSave(todo, result), maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                result.completeExceptionally(new RejectedExecutionException("Too many saves are waiting, please try again"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Stops taking saves and commits the ones still queued.
+     */
+    void close() {
+        synchronized (this) {
+            running = false;
+            if (waiting) {
+                flusher.interrupt();
+            }
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingSave> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    PendingSave first = next(Long.MAX_VALUE);
+                    if (first == null) {
+                        break;
+                    }
+                    batch.add(first);
+                }
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < batchSize && running) {
+                    PendingSave next = next(deadline - System.nanoTime());
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Woken up by close(): commit what has been collected and drain the rest
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                List<PendingSave> deferred = commit(batch);
+                batch.clear();
+                batch.addAll(deferred);
+            }
+        }
+    }
+
+    // Waits for the next save, or only looks for one once closed. Interrupting the flusher anywhere else
+    // could abort a commit that Mongo has applied already
+    private PendingSave next(long timeoutNanos) throws InterruptedException {
+        synchronized (this) {
+            if (!running) {
+                return queue.poll();
+            }
+            waiting = true;
+        }
+        try {
+            return queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            synchronized (this) {
+                waiting = false;
+                // An interrupt that came after the wait was over must not reach the commit
+                Thread.interrupted();
+            }
+        }
+    }
+
+    // Returns the saves held back for the next commit
+    private List<PendingSave> commit(List<PendingSave> batch) {
+        long start = System.nanoTime();
+        List<PendingSave> inserts = new ArrayList<>();
+        Map<String, PendingSave> updates = new LinkedHashMap<>();
+        // A todo saved again within the batch waits for the next one, where its version check tells whether
+        // the save was made on top of the first
+        List<PendingSave> deferred = new ArrayList<>();
+        Set<Todo> written = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PendingSave save : batch) {
+            if (!written.add(save.todo())) {
+                deferred.add(save);
+            } else if (save.todo().getId() == null) {
+                inserts.add(save);
+            } else if (updates.putIfAbsent(save.todo().getId(), save) != null) {
+                deferred.add(save);
+            }
+        }
+        List<PendingSave> committed = new ArrayList<>(inserts);
+        committed.addAll(updates.values());
+        // Versions as they were before this commit, put back on the todos of every save that fails
+        Map<String, Long> originalVersions = new HashMap<>();
+        Map<String, Long> expectedVersions = new HashMap<>();
+        Map<String, String> storedAuthors = Map.of();
+        try {
+            if (!updates.isEmpty()) {
+                storedAuthors = findAuthors(updates.keySet());
+            }
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Todo.class);
+            for (PendingSave save : inserts) {
+                save.todo().setId(new ObjectId().toHexString());
+                save.todo().setVersion(0L);
+                bulk.insert(save.todo());
+            }
+            for (PendingSave save : updates.values()) {
+                Todo todo = save.todo();
+                originalVersions.put(todo.getId(), todo.getVersion());
+                Query query = Query.query(Criteria.where("_id").is(todo.getId()));
+                if (todo.getVersion() != null) {
+                    query.addCriteria(Criteria.where("version").is(todo.getVersion()));
+                }
+                todo.setVersion(todo.getVersion() == null ? 0L : todo.getVersion() + 1);
+                expectedVersions.put(todo.getId(), todo.getVersion());
+                bulk.replaceOne(query, todo);
+            }
+            int matched = bulk.execute().getMatchedCount();
+            settle(inserts, updates, originalVersions, expectedVersions, storedAuthors, Map.of(), matched);
+        } catch (BulkOperationException e) {
+            // Unordered: every write not listed among the errors went in
+            logger.warn("Write-behind commit of {} todos had {} failed writes", committed.size(),
+                    e.getErrors().size(), e);
+            Map<Integer, BulkWriteError> errors = e.getErrors().stream()
+                    .collect(Collectors.toMap(BulkWriteError::getIndex, Function.identity()));
+            settle(inserts, updates, originalVersions, expectedVersions, storedAuthors, errors,
+                    e.getResult().getMatchedCount());
+        } catch (RuntimeException e) {
+            // Nothing tells which writes went in, so none of them count
+            logger.warn("Write-behind commit of {} todos failed", committed.size(), e);
+            inserts.forEach(save -> {
+                save.todo().setId(null);
+                save.todo().setVersion(null);
+            });
+            originalVersions.forEach((id, version) -> updates.get(id).todo().setVersion(version));
+            committed.forEach(save -> save.result().completeExceptionally(e));
+        } finally {
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizes.record(committed.size());
+        }
+        return deferred;
+    }
+
+    // Completes the saves whose writes were acknowledged and fails the others, indexed as in the bulk:
+    // the inserts first, then one replace per updated todo
+    private void settle(List<PendingSave> inserts, Map<String, PendingSave> updates,
+                        Map<String, Long> originalVersions, Map<String, Long> expectedVersions,
+                        Map<String, String> storedAuthors, Map<Integer, BulkWriteError> errors, int matched) {
+        for (int i = 0; i < inserts.size(); i++) {
+            PendingSave save = inserts.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error == null) {
+                complete(save, TodoChangeEvent.created(save.todo()));
+            } else {
+                save.todo().setId(null);
+                save.todo().setVersion(null);
+                save.result().completeExceptionally(writeFailure(error));
+            }
+        }
+        Map<String, BulkWriteError> failedUpdates = new HashMap<>();
+        int index = inserts.size();
+        for (String id : updates.keySet()) {
+            BulkWriteError error = errors.get(index++);
+            if (error != null) {
+                failedUpdates.put(id, error);
+                expectedVersions.remove(id);
+            }
+        }
+        List<String> conflicts = matched == expectedVersions.size() ? List.of() : findConflicts(expectedVersions);
+        updates.forEach((id, save) -> {
+            BulkWriteError error = failedUpdates.get(id);
+            if (error != null) {
+                save.todo().setVersion(originalVersions.get(id));
+                save.result().completeExceptionally(writeFailure(error));
+            } else if (conflicts.contains(id)) {
+                save.todo().setVersion(originalVersions.get(id));
+                save.result().completeExceptionally(new OptimisticLockingFailureException(
+                        "Todo " + id + " was changed by someone else"));
+            } else {
+                complete(save, TodoChangeEvent.updated(save.todo(), storedAuthors.get(id)));
+            }
+        });
+    }
+
+    private static RuntimeException writeFailure(BulkWriteError error) {
+        return error.getCategory() == ErrorCategory.DUPLICATE_KEY
+                ? new DuplicateKeyException(error.getMessage())
+                : new DataIntegrityViolationException(error.getMessage());
+    }
+
+    private void complete(PendingSave save, TodoChangeEvent event) {
+        publisher.accept(event);
+        save.result().complete(save.todo());
+    }
+
+    // Read before the writes, so that those following the old author hear about a todo moving to another
+    private Map<String, String> findAuthors(Collection<String> ids) {
+        Query query = Query.query(Criteria.where("_id").in(ids));
+        query.fields().include("_id", "author");
+        Map<String, String> authors = new HashMap<>();
+        mongoTemplate.find(query, Todo.class).forEach(todo -> authors.put(todo.getId(), todo.getAuthor()));
+        return authors;
+    }
+
+    // The bulk result only has totals, so the todos whose replace did not match are looked up by version
+    private List<String> findConflicts(Map<String, Long> expectedVersions) {
+        Query query = Query.query(Criteria.where("_id").in(expectedVersions.keySet()));
+        query.fields().include("_id", "version");
+        Map<String, Long> stored = new HashMap<>();
+        mongoTemplate.find(query, Todo.class).forEach(todo -> stored.put(todo.getId(), todo.getVersion()));
+        return expectedVersions.entrySet().stream()
+                .filter(expected -> !Objects.equals(stored.get(expected.getKey()), expected.getValue()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
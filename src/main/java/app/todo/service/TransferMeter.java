@@ -0,0 +1,88 @@
+package app.todo.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration and size of one kind of transfer, such as uploads or exports, as a timer {@code name} and a
+ * summary {@code name.size}. Throughput follows from the two sums.
+ */
+public class TransferMeter {
+
+    private final Timer timer;
+    private final DistributionSummary size;
+
+    public TransferMeter(MeterRegistry registry, String name, String... tags) {
+        this.timer = Timer.builder(name).tags(tags).register(registry);
+        this.size = DistributionSummary.builder(name + ".size").baseUnit(BaseUnits.BYTES).tags(tags).register(registry);
+    }
+
+    /**
+     * Records a finished transfer that started at the given {@link System#nanoTime()}.
+     */
+    public void record(long bytes, long startedAt) {
+        timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        size.record(bytes);
+    }
+
+    /**
+     * Counts the bytes read from the stream and records them, with the time since now, when it is closed.
+     */
+    public InputStream meter(InputStream in) {
+        return new MeteredInputStream(in);
+    }
+
+    private final class MeteredInputStream extends FilterInputStream {
+
+        private final long openedAt = System.nanoTime();
+        private long read;
+        private boolean closed;
+
+        private MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                read += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are not transferred, so they are not counted
+            return in.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    record(read, openedAt);
+                }
+            }
+        }
+    }
+}
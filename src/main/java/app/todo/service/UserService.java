@@ -2,21 +2,162 @@ package app.todo.service;
 
 import app.todo.model.User;
 import app.todo.repo.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves users through a bounded in-memory cache, by id and by username. Users change rarely, so entries
+ * live until they are saved through this service, evicted as least recently used or, for changes made on
+ * another replica, expired.
+ */
 @Service
 public class UserService {
+
+    private record CachedUser(User user, long cachedAt) {
+    }
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // Guarded by this
+    private final LinkedHashMap<String, CachedUser> usersById = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> idsByUsername = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private Timer findByUsernameTimer;
+    private Timer findByIdsTimer;
+    private Timer saveTimer;
+
+    public UserService(@Value("${todo.user-cache.max-entries:10000}") int maxEntries,
+                       @Value("${todo.user-cache.ttl:PT10M}") Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        findByUsernameTimer = Timer.builder("todo.user.store").tag("call", "find_by_username").register(meterRegistry);
+        findByIdsTimer = Timer.builder("todo.user.store").tag("call", "find_by_ids").register(meterRegistry);
+        saveTimer = Timer.builder("todo.user.store").tag("call", "save").register(meterRegistry);
+        FunctionCounter.builder("todo.user.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("todo.user.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(meterRegistry);
+    }
+
     public User findByUsername(String username) {
-        return userRepository.findByUsername(username);
+        User cached = getCached(username);
+        if (cached != null) {
+            return cached;
+        }
+        misses.increment();
+        User user = findByUsernameTimer.record(() -> userRepository.findByUsername(username));
+        if (user != null) {
+            cache(user);
+        }
+        return user;
+    }
+
+    public User findById(String id) {
+        return findByIds(List.of(id)).get(id);
+    }
+
+    /**
+     * Resolves many users at once, for example the authors of a page of todos, with at most one query for
+     * those not cached. Ids without a user are left out of the result.
+     */
+    public Map<String, User> findByIds(Collection<String> ids) {
+        Map<String, User> users = new HashMap<>();
+        List<String> missing = ids.stream()
+                .distinct()
+                .filter(id -> {
+                    User cached = getCachedById(id);
+                    if (cached != null) {
+                        users.put(id, cached);
+                        return false;
+                    }
+                    return true;
+                })
+                .toList();
+        if (!missing.isEmpty()) {
+            misses.add(missing.size());
+            for (User user : findByIdsTimer.record(() -> userRepository.findAllById(missing))) {
+                cache(user);
+                users.put(user.getId(), user);
+            }
+        }
+        return users;
     }
 
     public User saveUser(User user) {
-        return userRepository.save(user);
+        String previousId = user.getId();
+        User saved = saveTimer.record(() -> userRepository.save(user));
+        synchronized (this) {
+            if (previousId != null) {
+                forget(previousId);
+            }
+            cache(saved);
+        }
+        return saved;
+    }
+
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    public long getCacheMisses() {
+        return misses.sum();
     }
 
-    // Add more user-related methods as needed
-}
\ No newline at end of file
+    private synchronized User getCached(String username) {
+        String id = idsByUsername.get(username);
+        return id == null ? null : getCachedById(id);
+    }
+
+    private synchronized User getCachedById(String id) {
+        CachedUser cached = usersById.get(id);
+        if (cached == null) {
+            return null;
+        }
+        if (System.nanoTime() - cached.cachedAt() > ttlNanos) {
+            forget(id);
+            return null;
+        }
+        hits.increment();
+        return cached.user();
+    }
+
+    private synchronized void cache(User user) {
+        forget(user.getId());
+        usersById.put(user.getId(), new CachedUser(user, System.nanoTime()));
+        idsByUsername.put(user.getUsername(), user.getId());
+        if (usersById.size() > maxEntries) {
+            forget(usersById.keySet().iterator().next());
+        }
+    }
+
+    private synchronized void forget(String id) {
+        CachedUser removed = usersById.remove(id);
+        if (removed != null) {
+            idsByUsername.remove(removed.user().getUsername(), id);
+        }
+    }
+}
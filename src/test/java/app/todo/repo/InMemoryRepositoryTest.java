@@ -0,0 +1,172 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class InMemoryRepositoryTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 1, 1, 9, 0);
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "createdAt");
+
+    private final InMemoryRepository repository = new InMemoryRepository();
+
+    @Test
+    public void pagesNewestFirstWithinTheFilter() {
+        for (int i = 0; i < 10; i++) {
+            repository.save(todo("Todo " + i, i % 2 == 0 ? "alice" : "bob", NOW.plusHours(i)));
+        }
+        TodoFilter filter = TodoFilter.builder().author("alice").createdFrom(NOW.plusHours(2)).createdTo(NOW.plusHours(8)).build();
+
+        Slice<Todo> first = repository.find(filter, PageRequest.of(0, 2, NEWEST_FIRST));
+        Slice<Todo> second = repository.find(filter, PageRequest.of(1, 2, NEWEST_FIRST));
+
+        Assertions.assertEquals(List.of("Todo 6", "Todo 4"), first.map(Todo::getTitle).toList());
+        Assertions.assertTrue(first.hasNext());
+        Assertions.assertEquals(List.of("Todo 2"), second.map(Todo::getTitle).toList());
+        Assertions.assertFalse(second.hasNext());
+        Assertions.assertEquals(3, repository.count(filter));
+        Assertions.assertEquals(List.of("Todo 0", "Todo 1"), repository.find(TodoFilter.empty(),
+                PageRequest.of(0, 2, Sort.by("title"))).map(Todo::getTitle).toList());
+    }
+
+    @Test
+    public void staleVersionIsRejected() {
+        Todo todo = repository.save(todo("Original", "alice", NOW));
+        Todo stale = todo.toBuilder().build();
+
+        todo.setTitle("Changed");
+        repository.save(todo);
+        stale.setTitle("Lost update");
+
+        Assertions.assertThrows(OptimisticLockingFailureException.class, () -> repository.save(stale));
+        Assertions.assertEquals("Changed", repository.findAll().get(0).getTitle());
+    }
+
+    @Test
+    public void indexesFollowUpdatesAndDeletes() {
+        Todo todo = todo("Moved", "alice", NOW);
+        todo.setUserId("user1");
+        repository.save(todo);
+
+        todo.setUserId("user2");
+        todo.setCreatedAt(NOW.plusDays(1));
+        repository.save(todo);
+
+        Assertions.assertTrue(repository.findByUserId("user1").isEmpty());
+        Assertions.assertEquals(1, repository.findByUserId("user2", PageRequest.of(0, 10, NEWEST_FIRST)).getNumberOfElements());
+        Assertions.assertEquals(0, repository.count(TodoFilter.builder().createdTo(NOW.plusHours(1)).build()));
+
+        Assertions.assertEquals(1, repository.deleteAll(List.of(todo.getId(), "missing")));
+        Assertions.assertTrue(repository.findByUserId("user2").isEmpty());
+        Assertions.assertEquals(0, repository.count(TodoFilter.builder().createdFrom(NOW).build()));
+    }
+
+    @Test
+    public void returnedTodosAreCopies() {
+        repository.save(todo("Stored", "alice", NOW));
+
+        repository.findAll().get(0).setTitle("Changed outside");
+
+        Assertions.assertEquals("Stored", repository.findAll().get(0).getTitle());
+    }
+
+    @Test
+    public void concurrentSavesOfOneTodoKeepOneWinnerPerVersion() throws Exception {
+        Todo todo = repository.save(todo("Contended", "alice", NOW));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Todo copy = todo.toBuilder().title("Writer " + i).build();
+                results.add(executor.submit(() -> {
+                    try {
+                        repository.save(copy);
+                        return true;
+                    } catch (OptimisticLockingFailureException e) {
+                        return false;
+                    }
+                }));
+            }
+            long winners = 0;
+            for (Future<Boolean> result : results) {
+                winners += result.get() ? 1 : 0;
+            }
+            Assertions.assertEquals(1, winners);
+            Assertions.assertEquals(1L, repository.findAll().get(0).getVersion());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void changesSurviveARestart(@TempDir Path dir) throws Exception {
+        InMemoryRepository before = new InMemoryRepository(dir.toString(), 0, 4096);
+        before.open();
+        Todo kept = before.save(todo("Kept", "alice", NOW));
+        Todo deleted = before.save(todo("Deleted", "bob", NOW.plusHours(1)));
+        before.snapshot();
+        kept.setTitle("Kept and changed");
+        before.save(kept);
+        before.delete(deleted);
+        // Enough records to roll over to new log segments
+        for (int i = 0; i < 100; i++) {
+            before.save(todo("Later " + i, "carol", NOW.plusDays(1).plusMinutes(i)));
+        }
+        before.close();
+
+        InMemoryRepository after = new InMemoryRepository(dir.toString(), 0, 4096);
+        after.open();
+        try {
+            List<Todo> todos = after.findAll().stream().sorted(Comparator.comparing(Todo::getCreatedAt)).toList();
+            Assertions.assertEquals(101, todos.size());
+            Assertions.assertEquals("Kept and changed", todos.get(0).getTitle());
+            Assertions.assertEquals(1L, todos.get(0).getVersion());
+            Assertions.assertEquals(100, after.count(TodoFilter.builder().author("carol").build()));
+            Assertions.assertEquals(0, after.count(TodoFilter.builder().author("bob").build()));
+        } finally {
+            after.close();
+        }
+    }
+
+    @Test
+    public void logIsReplayedWithoutAnOrderlyShutdown(@TempDir Path dir) throws Exception {
+        InMemoryRepository crashed = new InMemoryRepository(dir.toString(), 0, 1 << 20);
+        crashed.open();
+        crashed.snapshot();
+        Todo todo = crashed.save(todo("Logged", "alice", NOW));
+        todo.setTitle("Logged twice");
+        crashed.save(todo);
+        crashed.save(todo("Another", "alice", NOW.plusHours(1)));
+
+        // The crashed store is left as it is: no final snapshot, the log segment still mapped
+        InMemoryRepository recovered = new InMemoryRepository(dir.toString(), 0, 1 << 20);
+        recovered.open();
+        try {
+            Assertions.assertEquals(2, recovered.count(TodoFilter.empty()));
+            Assertions.assertEquals("Logged twice", recovered.find(TodoFilter.empty(),
+                    PageRequest.of(0, 1, Sort.by("createdAt"))).getContent().get(0).getTitle());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private static Todo todo(String title, String author, LocalDateTime createdAt) {
+        return Todo.builder().title(title).author(author).createdAt(createdAt).build();
+    }
+}
@@ -0,0 +1,102 @@
+package app.todo.repo;
+
+import app.todo.model.Todo;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares saves to the durable in-memory store with Mongo saves, and times its startup from a snapshot
+ * plus a log tail. Needs a running mongod. Run with
+ * {@code mvn test -Dtest=TodoStoreBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class TodoStoreBenchmark {
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 1, 1, 9, 0);
+    private static final int THREADS = 8;
+    private static final int SAVES = 100_000;
+
+    @Test
+    public void compareWithMongoSave(@TempDir Path dir) throws Exception {
+        try (MongoClient client = MongoClients.create("mongodb://localhost:27017")) {
+            MongoTemplate mongoTemplate = new MongoTemplate(client, "todoStoreBenchmark");
+            mongoTemplate.dropCollection(Todo.class);
+            measureSaves("mongo save          ", mongoTemplate::save);
+            mongoTemplate.dropCollection(Todo.class);
+        }
+        for (long fsyncMillis : new long[]{0, 2, -1}) {
+            Path storeDir = dir.resolve("fsync" + fsyncMillis);
+            InMemoryRepository store = new InMemoryRepository(storeDir.toString(), fsyncMillis, 64 << 20);
+            store.open();
+            measureSaves(String.format("in-memory fsync %-4d", fsyncMillis), store::save);
+            store.close();
+        }
+
+        Path storeDir = dir.resolve("startup");
+        InMemoryRepository store = new InMemoryRepository(storeDir.toString(), -1, 64 << 20);
+        store.open();
+        for (int i = 0; i < 1_000_000; i++) {
+            store.save(todo(i));
+        }
+        store.snapshot();
+        for (int i = 0; i < 200_000; i++) {
+            store.save(todo(i));
+        }
+        // No close, so the tail stays in the log as after a crash
+        for (int run = 0; run < 3; run++) {
+            InMemoryRepository restarted = new InMemoryRepository(storeDir.toString(), -1, 64 << 20);
+            long start = System.nanoTime();
+            restarted.open();
+            System.out.printf("startup with 1,000,000 snapshot todos and 200,000 log records: %,d ms%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static void measureSaves(String name, Consumer<Todo> save) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int offset = thread * (SAVES / THREADS);
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < SAVES / THREADS; i++) {
+                        save.accept(todo(offset + i));
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%s %,d saves from %d threads: %,6d ms, %,9.0f saves/s%n", name, SAVES, THREADS,
+                    TimeUnit.NANOSECONDS.toMillis(nanos), SAVES / (nanos / 1e9));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Todo todo(int i) {
+        return Todo.builder()
+                .title("Todo " + i)
+                .body("Body of todo number " + i)
+                .author("author" + (i % 20))
+                .userId("user" + (i % 100))
+                .createdAt(CREATED_AT.plusSeconds(i))
+                .build();
+    }
+}
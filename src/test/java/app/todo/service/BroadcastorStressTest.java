@@ -0,0 +1,232 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BroadcastorStressTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BroadcastorStressTest.class);
+    private static final int LISTENERS = 5_000;
+    private static final int EVENTS = 20;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void stuckListenerDoesNotDelayTheOthers() throws Exception {
+        Broadcastor broadcastor = new Broadcastor(16, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor);
+        broadcastor.register(events -> awaitRelease());
+
+        long[] latencies = new long[LISTENERS * EVENTS];
+        AtomicInteger deliveries = new AtomicInteger();
+        CountDownLatch delivered = new CountDownLatch(latencies.length);
+        for (int i = 0; i < LISTENERS; i++) {
+            broadcastor.register(events -> {
+                long now = System.nanoTime();
+                for (TodoChangeEvent event : events) {
+                    latencies[deliveries.getAndIncrement()] = now - Long.parseLong(event.getTodoId());
+                    delivered.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < EVENTS; i++) {
+            broadcastor.publish(TodoChangeEvent.deleted(Long.toString(System.nanoTime())));
+            Thread.sleep(5);
+        }
+
+        Assertions.assertTrue(delivered.await(30, TimeUnit.SECONDS), "Not every listener received every event");
+        Arrays.sort(latencies);
+        long p50 = TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length / 2]);
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latencies[(int) (latencies.length * 0.99) - 1]);
+        logger.debug("Broadcast to {} listeners x {} events: p50={}ms p99={}ms", LISTENERS, EVENTS, p50, p99);
+        Assertions.assertTrue(p99 < 1_000, "p99 delivery latency too high: " + p99 + "ms");
+    }
+
+    @Test
+    public void dropOldestKeepsTheBacklogBounded() throws Exception {
+        Broadcastor broadcastor = new Broadcastor(4, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch firstDelivered = new CountDownLatch(1);
+        broadcastor.register(events -> {
+            firstDelivered.countDown();
+            awaitRelease();
+            events.forEach(event -> received.add(describe(event)));
+        });
+
+        broadcastor.publish(TodoChangeEvent.deleted("0"));
+        Assertions.assertTrue(firstDelivered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            broadcastor.publish(TodoChangeEvent.deleted(Integer.toString(i)));
+        }
+        release.countDown();
+
+        awaitSize(received, 6);
+        Assertions.assertEquals(List.of("0", "REFRESH", "7", "8", "9", "10"), received);
+        Assertions.assertEquals(6, broadcastor.getDroppedEvents());
+    }
+
+    @Test
+    public void coalesceCollapsesTheBacklogToTheNewestEvent() throws Exception {
+        Broadcastor broadcastor = new Broadcastor(4, Broadcastor.OverflowPolicy.COALESCE, 0, executor);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch firstDelivered = new CountDownLatch(1);
+        broadcastor.register(events -> {
+            firstDelivered.countDown();
+            awaitRelease();
+            events.forEach(event -> received.add(describe(event)));
+        });
+
+        broadcastor.publish(TodoChangeEvent.deleted("0"));
+        Assertions.assertTrue(firstDelivered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            broadcastor.publish(TodoChangeEvent.deleted(Integer.toString(i)));
+        }
+        release.countDown();
+
+        awaitSize(received, 4);
+        Assertions.assertEquals(List.of("0", "REFRESH", "9", "10"), received);
+    }
+
+    @Test
+    public void eventsWithinTheBatchWindowArriveTogether() throws Exception {
+        Broadcastor broadcastor = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 200, executor);
+        List<List<TodoChangeEvent>> batches = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        broadcastor.register(events -> {
+            batches.add(events);
+            delivered.countDown();
+        });
+
+        for (int i = 0; i < 10; i++) {
+            broadcastor.publish(TodoChangeEvent.deleted(Integer.toString(i)));
+        }
+
+        Assertions.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, batches.size());
+        Assertions.assertEquals(10, batches.get(0).size());
+    }
+
+    @Test
+    public void publishOnlyReachesMatchingTopics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Broadcastor broadcastor = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor,
+                new InProcessBroadcastBus(), registry);
+        List<String> received = new CopyOnWriteArrayList<>();
+        broadcastor.register(events -> received.add("global"));
+        broadcastor.register(Broadcastor.authorTopic("alice"), events -> received.add("alice"));
+        broadcastor.register(Broadcastor.authorTopic("bob"), events -> received.add("bob"));
+
+        broadcastor.publish(TodoChangeEvent.created(Todo.builder().id("1").author("alice").build()));
+
+        awaitSize(received, 2);
+        Assertions.assertEquals(List.of("alice", "global"), received.stream().sorted().toList());
+        // Once to the global topic and once to alice's, but not to bob's
+        Assertions.assertEquals(1,
+                registry.get("todo.broadcast.published").tag("topic", "global").functionCounter().count());
+        Assertions.assertEquals(1,
+                registry.get("todo.broadcast.published").tag("topic", "author").functionCounter().count());
+        Assertions.assertEquals(2, registry.get("todo.broadcast.subscribers").tag("topic", "author").gauge().value());
+    }
+
+    @Test
+    public void authorChangeReachesTheOldAuthorsTopic() throws Exception {
+        Broadcastor broadcastor = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor);
+        List<String> received = new CopyOnWriteArrayList<>();
+        broadcastor.register(Broadcastor.authorTopic("alice"), events -> received.add("alice"));
+        broadcastor.register(Broadcastor.authorTopic("bob"), events -> received.add("bob"));
+        broadcastor.register(Broadcastor.authorTopic("carol"), events -> received.add("carol"));
+
+        broadcastor.publish(TodoChangeEvent.updated(Todo.builder().id("1").author("bob").build(), "alice"));
+
+        awaitSize(received, 2);
+        Assertions.assertEquals(List.of("alice", "bob"), received.stream().sorted().toList());
+    }
+
+    @Test
+    public void eventsReachOtherNodesWithoutEchoes() throws Exception {
+        InProcessBroadcastBus bus = new InProcessBroadcastBus(20, 100);
+        Broadcastor nodeA = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor, bus);
+        Broadcastor nodeB = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor, bus);
+        List<String> received = new CopyOnWriteArrayList<>();
+        nodeA.register(events -> events.forEach(event -> received.add("A" + event.getTodoId())));
+        nodeB.register(events -> events.forEach(event -> received.add("B" + event.getTodoId())));
+
+        nodeA.publish(TodoChangeEvent.deleted("1"));
+        nodeB.publish(TodoChangeEvent.deleted("2"));
+
+        awaitSize(received, 4);
+        bus.close();
+        Assertions.assertEquals(List.of("A1", "A2", "B1", "B2"), received.stream().sorted().toList());
+    }
+
+    @Test
+    public void queueDepthAndDeliveryLatencyAreMetered() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Broadcastor broadcastor = new Broadcastor(64, Broadcastor.OverflowPolicy.DROP_OLDEST, 0, executor,
+                new InProcessBroadcastBus(), registry);
+        CountDownLatch firstDelivered = new CountDownLatch(1);
+        broadcastor.register(events -> {
+            firstDelivered.countDown();
+            awaitRelease();
+        });
+
+        broadcastor.publish(TodoChangeEvent.deleted("0"));
+        Assertions.assertTrue(firstDelivered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 3; i++) {
+            broadcastor.publish(TodoChangeEvent.deleted(Integer.toString(i)));
+        }
+        Assertions.assertEquals(3, registry.get("todo.broadcast.queued").gauge().value());
+        Assertions.assertEquals(1, registry.get("todo.broadcast.listeners").gauge().value());
+        release.countDown();
+
+        // One delivery for the first event, one for the three queued behind it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("todo.broadcast.delivery").timer().count() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, registry.get("todo.broadcast.delivery").timer().count());
+        Assertions.assertEquals(0, registry.get("todo.broadcast.queued").gauge().value());
+    }
+
+    private static String describe(TodoChangeEvent event) {
+        return event.getType() == TodoChangeEvent.Type.REFRESH ? "REFRESH" : event.getTodoId();
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitSize(List<String> received, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+    }
+}
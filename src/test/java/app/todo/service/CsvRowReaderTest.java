@@ -0,0 +1,21 @@
+package app.todo.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class CsvRowReaderTest {
+
+    @Test
+    public void readsQuotedFieldsAcrossLines() throws IOException {
+        CsvRowReader reader = new CsvRowReader(new StringReader(
+                "\uFEFFtitle,body\r\n\"Buy milk, eggs\",\"He said \"\"now\"\"\nand left\"\nplain,\n"));
+
+        Assertions.assertArrayEquals(new String[]{"title", "body"}, reader.next());
+        Assertions.assertArrayEquals(new String[]{"Buy milk, eggs", "He said \"now\"\nand left"}, reader.next());
+        Assertions.assertArrayEquals(new String[]{"plain", ""}, reader.next());
+        Assertions.assertNull(reader.next());
+    }
+}
@@ -0,0 +1,52 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ExportCacheTest {
+
+    private static final Todo FIRST = Todo.builder().id("1").title("First").version(0L).build();
+    private static final Todo SECOND = Todo.builder().id("2").title("Second").version(3L).build();
+
+    @Test
+    public void keyDependsOnFormatIdsAndVersionsButNotOrder() {
+        String key = ExportCache.key(ExportFormat.PDF, List.of(FIRST, SECOND));
+        Assertions.assertEquals(key, ExportCache.key(ExportFormat.PDF, List.of(SECOND, FIRST)));
+        Assertions.assertNotEquals(key, ExportCache.key(ExportFormat.EXCEL, List.of(FIRST, SECOND)));
+        Assertions.assertNotEquals(key, ExportCache.key(ExportFormat.PDF,
+                List.of(FIRST, Todo.builder().id("2").title("Second").version(4L).build())));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntriesOverTheByteBudget() {
+        ExportCache cache = new ExportCache(10, 10);
+        cache.put("a", List.of(FIRST), new byte[4]);
+        cache.put("b", List.of(SECOND), new byte[4]);
+        Assertions.assertNotNull(cache.get("a"));
+        cache.put("c", List.of(SECOND), new byte[4]);
+
+        Assertions.assertNotNull(cache.get("a"));
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertEquals(8, cache.getSizeBytes());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void changingATodoDropsEveryEntryContainingIt() {
+        ExportCache cache = new ExportCache(100, 100);
+        cache.put("both", List.of(FIRST, SECOND), new byte[4]);
+        cache.put("first", List.of(FIRST), new byte[4]);
+        cache.put("second", List.of(SECOND), new byte[4]);
+
+        cache.invalidate("2");
+
+        Assertions.assertNotNull(cache.get("first"));
+        Assertions.assertNull(cache.get("both"));
+        Assertions.assertNull(cache.get("second"));
+        Assertions.assertEquals(4, cache.getSizeBytes());
+        Assertions.assertEquals(1.0 / 3, cache.getHitRatio(), 1e-9);
+    }
+}
@@ -0,0 +1,62 @@
+package app.todo.service;
+
+import app.todo.model.BroadcastEvent;
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two buses on the same database stand in for two replicas. Needs a running mongod.
+ */
+@DataMongoTest(properties = "spring.data.mongodb.database=mongoBroadcastBusIT")
+public class MongoBroadcastBusIT {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private MongoBroadcastBus busA;
+    private MongoBroadcastBus busB;
+
+    @AfterEach
+    public void tearDown() {
+        busA.close();
+        busB.close();
+        mongoTemplate.dropCollection(MongoBroadcastBus.COLLECTION);
+    }
+
+    @Test
+    public void batchesReachTheOtherNodeOnly() throws Exception {
+        busA = new MongoBroadcastBus(mongoTemplate, 20, 100, 1024 * 1024);
+        busB = new MongoBroadcastBus(mongoTemplate, 20, 100, 1024 * 1024);
+        busA.start();
+        busB.start();
+        List<BroadcastEvent> receivedByA = new CopyOnWriteArrayList<>();
+        List<BroadcastEvent> receivedByB = new CopyOnWriteArrayList<>();
+        busA.subscribe("A", receivedByA::addAll);
+        busB.subscribe("B", receivedByB::addAll);
+
+        Todo todo = Todo.builder().id("42").title("Replicated").author("alice").build();
+        busA.publish("A", TodoChangeEvent.created(todo));
+        busA.publish("A", TodoChangeEvent.deleted("43"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (receivedByB.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+
+        Assertions.assertEquals(List.of(TodoChangeEvent.created(todo), TodoChangeEvent.deleted("43")), receivedByB);
+        Assertions.assertTrue(receivedByA.isEmpty(), "A node must not receive its own events");
+        Assertions.assertEquals(1, mongoTemplate.getCollection(MongoBroadcastBus.COLLECTION).countDocuments(),
+                "Both events should have been sent as one batch");
+    }
+}
@@ -0,0 +1,124 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Table;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compares the streaming PDF export with the former fully buffered one. Run with
+ * {@code mvn test -Dtest=PdfGeneratorBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class PdfGeneratorBenchmark {
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    @Test
+    public void compareWithBufferedExport() throws Exception {
+        for (int rows : new int[]{1_000, 10_000, 100_000}) {
+            measure("buffered ", rows, out -> copy(bufferedPdf(todos(rows)), out));
+            measure("streaming", rows, out -> PdfGenerator.writePdf(todos(rows), out));
+        }
+    }
+
+    private static void measure(String name, int rows, Consumer<OutputStream> export) {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long baseline = heapPools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+
+        TimingOutputStream out = new TimingOutputStream();
+        long start = System.nanoTime();
+        export.accept(out);
+        long total = System.nanoTime() - start;
+
+        long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf("%s %,7d rows: first byte %,6d ms, total %,6d ms, peak heap +%,5d MB, %,6d KB written%n",
+                name, rows,
+                TimeUnit.NANOSECONDS.toMillis(out.firstWriteAt - start),
+                TimeUnit.NANOSECONDS.toMillis(total),
+                (peak - baseline) / (1024 * 1024),
+                out.written / 1024);
+    }
+
+    private static Stream<Todo> todos(int rows) {
+        return IntStream.range(0, rows).mapToObj(i -> Todo.builder()
+                .id(Integer.toString(i))
+                .title("Todo " + i)
+                .body("Body of todo number " + i + " with a bit of text to wrap")
+                .author("author" + (i % 20))
+                .createdAt(CREATED_AT.plusMinutes(i))
+                .build());
+    }
+
+    // The export as it was before streaming: whole table in memory, then copied into an input stream
+    private static InputStream bufferedPdf(Stream<Todo> todos) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfDocument pdfDoc = new PdfDocument(new PdfWriter(out));
+        Document document = new Document(pdfDoc);
+        document.add(new Paragraph("Todo List Export"));
+        Table table = new Table(4);
+        table.addHeaderCell("Title");
+        table.addHeaderCell("Body");
+        table.addHeaderCell("Author");
+        table.addHeaderCell("Created At");
+        todos.forEach(todo -> {
+            table.addCell(todo.getTitle());
+            table.addCell(todo.getBody());
+            table.addCell(todo.getAuthor());
+            table.addCell(todo.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+        });
+        document.add(table);
+        document.close();
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static void copy(InputStream in, OutputStream out) {
+        try (in) {
+            in.transferTo(out);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class TimingOutputStream extends OutputStream {
+
+        private long firstWriteAt;
+        private long written;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (written == 0) {
+                firstWriteAt = System.nanoTime();
+            }
+            written += len;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import app.todo.model.TodoFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TodoQueryCacheTest {
+
+    private static final TodoFilter ALICE = TodoFilter.builder().author("alice").build();
+    private static final TodoFilter BOB = TodoFilter.builder().author("bob").build();
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        TodoQueryCache cache = new TodoQueryCache(100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> cache.get(countKey(ALICE), () -> {
+                    loads.incrementAndGet();
+                    awaitQuietly(release);
+                    return 42L;
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Long> result : results) {
+                Assertions.assertEquals(42L, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(15, cache.getHits());
+    }
+
+    @Test
+    public void changesOnlyDropQueriesTheTodoMatches() {
+        TodoQueryCache cache = new TodoQueryCache(100, Duration.ofMinutes(1));
+        Todo todo = Todo.builder().id("1").author("alice").title("Old").build();
+        cache.get(sliceKey(ALICE, 0), () -> new SliceImpl<>(List.of(todo)));
+        cache.get(sliceKey(ALICE, 1), () -> new SliceImpl<>(List.<Todo>of()));
+        cache.get(countKey(ALICE), () -> 1L);
+        cache.get(countKey(BOB), () -> 0L);
+
+        cache.invalidate(TodoChangeEvent.created(Todo.builder().id("2").author("bob").build()));
+        Assertions.assertEquals(3, cache.size(), "Only bob's query should be gone");
+
+        // alice's todo moves to bob: alice's queries go because they held it, although it no longer matches
+        cache.invalidate(TodoChangeEvent.updated(Todo.builder().id("1").author("bob").title("Old").build()));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    private static TodoQueryCache.Key countKey(TodoFilter filter) {
+        return new TodoQueryCache.Key(TodoQueryCache.Kind.COUNT, new TodoQueryCache.Scope(filter, null), null);
+    }
+
+    private static TodoQueryCache.Key sliceKey(TodoFilter filter, int page) {
+        return new TodoQueryCache.Key(TodoQueryCache.Kind.SLICE, new TodoQueryCache.Scope(filter, null), PageRequest.of(page, 50));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
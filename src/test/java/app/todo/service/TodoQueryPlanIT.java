@@ -0,0 +1,93 @@
+package app.todo.service;
+
+import app.todo.config.MongoConfig;
+import app.todo.model.Todo;
+import app.todo.model.TodoFilter;
+import app.todo.model.User;
+import app.todo.repo.MongoTodoStore;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+
+/**
+ * Runs explain() for the query shape behind every repository and service read and fails on any
+ * collection scan. Needs a running mongod, like the rest of the *IT tests.
+ */
+@DataMongoTest(properties = "spring.data.mongodb.database=todoQueryPlanIT")
+@Import(MongoConfig.class)
+public class TodoQueryPlanIT {
+
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void seed() {
+        for (int i = 0; i < 50; i++) {
+            mongoTemplate.insert(Todo.builder().title("Todo " + i).body("Body " + i).author("author" + (i % 5))
+                    .userId("user" + (i % 5)).createdAt(NOW.minusDays(i)).build());
+        }
+        mongoTemplate.insert(User.builder().username("alice").password("secret").build());
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        mongoTemplate.remove(new Query(), Todo.class);
+        mongoTemplate.remove(new Query(), User.class);
+    }
+
+    @Test
+    public void todoRepositoryQueriesUseIndexes() {
+        Document newestFirst = new Document("createdAt", -1);
+        assertNoCollectionScan("todos", new Document("userId", "user1"), new Document());
+        assertNoCollectionScan("todos", new Document("userId", "user1"), newestFirst);
+        assertNoCollectionScan("todos", new Document(), newestFirst);
+        assertNoCollectionScan("todos", new Document(), new Document("title", 1));
+        assertNoCollectionScan("todos", new Document(), new Document("author", 1));
+    }
+
+    @Test
+    public void todoFilterQueriesUseIndexes() {
+        Sort newestFirst = Sort.by(Sort.Direction.DESC, "createdAt");
+        assertNoCollectionScan(TodoFilter.builder().author("author1").build(), newestFirst);
+        assertNoCollectionScan(TodoFilter.builder().titlePrefix("Todo 1").build(), newestFirst);
+        assertNoCollectionScan(TodoFilter.builder().titlePrefix("Todo 1").build(), Sort.by("title"));
+        assertNoCollectionScan(TodoFilter.builder().createdFrom(NOW.minusDays(10)).createdTo(NOW).build(), newestFirst);
+        assertNoCollectionScan(TodoFilter.builder().author("author1").titlePrefix("Todo")
+                .createdFrom(NOW.minusDays(10)).build(), newestFirst);
+    }
+
+    @Test
+    public void userAndFileQueriesUseIndexes() {
+        assertNoCollectionScan("users", new Document("username", "alice"), new Document());
+        assertNoCollectionScan("fs.files", new Document("filename", "report.pdf"), new Document());
+        assertNoCollectionScan("fs.files", new Document("metadata.sha256", "0f1e"), new Document());
+        assertNoCollectionScan("attachments", new Document("uploadDate", new Document("$gte", new Date())),
+                new Document("uploadDate", -1));
+    }
+
+    private void assertNoCollectionScan(TodoFilter filter, Sort sort) {
+        Query query = MongoTodoStore.toQuery(filter).with(PageRequest.of(0, 50, sort));
+        assertNoCollectionScan("todos", query.getQueryObject(), query.getSortObject());
+    }
+
+    private void assertNoCollectionScan(String collection, Document filter, Document sort) {
+        Document explain = mongoTemplate.getCollection(collection).find(filter).sort(sort).explain();
+        String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+        Assertions.assertFalse(winningPlan.contains("COLLSCAN"),
+                () -> collection + " query " + filter.toJson() + " sorted by " + sort.toJson() + " scans the collection: " + winningPlan);
+    }
+}
@@ -0,0 +1,66 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Indexes a million todos with a skewed vocabulary and times searches for rare, common and partly typed
+ * words. Run with {@code mvn test -Dtest=TodoSearchIndexBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class TodoSearchIndexBenchmark {
+
+    private static final int TODOS = 1_000_000;
+    private static final int VOCABULARY = 50_000;
+
+    @Test
+    public void searchAMillionTodos() {
+        Random random = new Random(42);
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 3 + random.nextInt(7); j > 0; j--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+
+        TodoSearchIndex index = new TodoSearchIndex();
+        long start = System.nanoTime();
+        index.rebuild(IntStream.range(0, TODOS).mapToObj(i -> Todo.builder()
+                .id(Integer.toString(i))
+                .title(text(words, random, 4))
+                .body(text(words, random, 20))
+                .build()));
+        System.out.printf("indexed %,d todos in %,d ms%n", TODOS, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        for (String query : new String[]{words[0], words[0] + " " + words[1], words[30_000], words[0].substring(0, 2),
+                words[20_000] + " " + words[5].substring(0, 3)}) {
+            for (int i = 0; i < 200; i++) {
+                index.search(query, 0, 50);
+            }
+            int runs = 100;
+            TodoSearchIndex.Hits hits = null;
+            start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                hits = index.search(query, 0, 50);
+            }
+            System.out.printf("%-24s %,9d hits %8.3f ms%n", query, hits.total(), (System.nanoTime() - start) / 1e6 / runs);
+        }
+    }
+
+    // Zipf-like: a few words are in most todos, most words in very few
+    private static String text(String[] words, Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int rank = (int) Math.min(words.length - 1, Math.floor(Math.pow(words.length, random.nextDouble())) - 1);
+            text.append(words[rank]).append(' ');
+        }
+        return text.toString();
+    }
+}
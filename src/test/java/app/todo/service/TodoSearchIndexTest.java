@@ -0,0 +1,88 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class TodoSearchIndexTest {
+
+    private final TodoSearchIndex index = new TodoSearchIndex();
+
+    @Test
+    public void allWordsMustMatchAndTitlesRankFirst() {
+        index.put(todo("1", "Quarterly report", "send to finance"));
+        index.put(todo("2", "Finance meeting", "bring the quarterly report"));
+        index.put(todo("3", "Report bug", "in the login form"));
+
+        Assertions.assertEquals(List.of("1", "2"), index.search("quarterly report ", 0, 10).todoIds());
+        Assertions.assertEquals(List.of("2", "1"), index.search("finance", 0, 10).todoIds());
+        Assertions.assertEquals(0, index.search("quarterly bug ", 0, 10).total());
+    }
+
+    @Test
+    public void lastWordMatchesAsPrefixWhileTyping() {
+        index.put(todo("1", "Meeting notes", null));
+        index.put(todo("2", "Meet Bob", null));
+        index.put(todo("3", "Metrics", null));
+
+        Assertions.assertEquals(3, index.search("me", 0, 10).total());
+        Assertions.assertEquals(List.of("2", "1"), index.search("mee", 0, 10).todoIds());
+        Assertions.assertEquals(List.of("2"), index.search("meet ", 0, 10).todoIds());
+    }
+
+    @Test
+    public void changesReplaceWhatWasIndexed() {
+        index.put(todo("1", "Buy milk", null));
+        index.put(todo("1", "Buy bread", null));
+        index.put(todo("2", "Buy milk", null));
+        index.remove(List.of("2"));
+
+        Assertions.assertEquals(0, index.search("milk", 0, 10).total());
+        Assertions.assertEquals(List.of("1"), index.search("bread", 0, 10).todoIds());
+        Assertions.assertEquals(1, index.size());
+    }
+
+    @Test
+    public void pagesStayConsistentAcrossCompaction() {
+        // Enough rewrites to compact the posting lists several times
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 1000; i++) {
+                index.put(todo(Integer.toString(i), "Task " + i, round == 4 ? "final" : "draft"));
+            }
+        }
+
+        Assertions.assertEquals(1000, index.search("final", 0, 10).total());
+        Assertions.assertEquals(0, index.search("draft", 0, 10).total());
+        List<String> first = index.search("task", 0, 600).todoIds();
+        List<String> second = index.search("task", 600, 600).todoIds();
+        Assertions.assertEquals(400, second.size());
+        Assertions.assertEquals(1000, Stream.concat(first.stream(), second.stream()).distinct().count());
+    }
+
+    @Test
+    public void changesDuringARebuildAreKept() {
+        index.put(todo("old", "Stale", null));
+        Stream<Todo> todos = IntStream.range(0, 3).mapToObj(i -> {
+            if (i == 1) {
+                // Arrives while the rebuild is reading
+                index.put(todo("new", "Created meanwhile", null));
+                index.remove(List.of("0"));
+            }
+            return todo(Integer.toString(i), "Rebuilt " + i, null);
+        });
+
+        index.rebuild(todos);
+
+        Assertions.assertEquals(0, index.search("stale", 0, 10).total());
+        Assertions.assertEquals(List.of("new"), index.search("meanwhile", 0, 10).todoIds());
+        Assertions.assertEquals(2, index.search("rebuilt", 0, 10).total());
+    }
+
+    private static Todo todo(String id, String title, String body) {
+        return Todo.builder().id(id).title(title).body(body).build();
+    }
+}
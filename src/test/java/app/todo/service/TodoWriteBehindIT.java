@@ -0,0 +1,142 @@
+package app.todo.service;
+
+import app.todo.model.Todo;
+import app.todo.model.TodoChangeEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves are queued within one long flush window, so each test commits them together. Needs a running
+ * mongod, like the rest of the *IT tests.
+ */
+@DataMongoTest(properties = "spring.data.mongodb.database=todoWriteBehindIT")
+public class TodoWriteBehindIT {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final List<TodoChangeEvent> published = new CopyOnWriteArrayList<>();
+    private TodoWriteBehind writeBehind;
+
+    @BeforeEach
+    public void setUp() {
+        // Gives the inserts and replaces a way to fail on their own
+        mongoTemplate.indexOps(Todo.class).ensureIndex(new Index().on("title", Sort.Direction.ASC).unique());
+        writeBehind = new TodoWriteBehind(mongoTemplate, published::add, new SimpleMeterRegistry(),
+                100, 100, 200, 1000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        writeBehind.close();
+        mongoTemplate.dropCollection(Todo.class);
+    }
+
+    @Test
+    public void failedWritesLeaveTheOthersAcknowledged() throws Exception {
+        mongoTemplate.insert(Todo.builder().title("taken").version(0L).build());
+        Todo renamed = mongoTemplate.insert(Todo.builder().title("renamed").version(0L).build());
+        Todo edited = mongoTemplate.insert(Todo.builder().title("edited").version(0L).build());
+
+        Todo duplicate = Todo.builder().title("taken").build();
+        Todo fresh = Todo.builder().title("fresh").build();
+        renamed.setTitle("taken");
+        edited.setBody("changed");
+        CompletableFuture<Todo> duplicateSave = writeBehind.save(duplicate);
+        CompletableFuture<Todo> freshSave = writeBehind.save(fresh);
+        CompletableFuture<Todo> renamedSave = writeBehind.save(renamed);
+        CompletableFuture<Todo> editedSave = writeBehind.save(edited);
+
+        assertFailsWith(DuplicateKeyException.class, duplicateSave);
+        Assertions.assertNull(duplicate.getId());
+        Assertions.assertNull(duplicate.getVersion());
+
+        Assertions.assertNotNull(freshSave.get(5, TimeUnit.SECONDS).getId());
+        Assertions.assertEquals(0L, fresh.getVersion());
+
+        assertFailsWith(DuplicateKeyException.class, renamedSave);
+        Assertions.assertEquals(0L, renamed.getVersion());
+
+        Assertions.assertEquals(1L, editedSave.get(5, TimeUnit.SECONDS).getVersion());
+        Assertions.assertEquals("changed", mongoTemplate.findById(edited.getId(), Todo.class).getBody());
+
+        Assertions.assertEquals(List.of(TodoChangeEvent.created(fresh), TodoChangeEvent.updated(edited)), published);
+    }
+
+    @Test
+    public void staleSaveConflictsWithoutHoldingUpTheBatch() throws Exception {
+        Todo stored = mongoTemplate.insert(Todo.builder().title("stored").version(0L).build());
+        Todo other = mongoTemplate.insert(Todo.builder().title("other").version(0L).build());
+        mongoTemplate.save(stored.toBuilder().body("changed elsewhere").build());
+
+        stored.setBody("stale");
+        other.setBody("current");
+        CompletableFuture<Todo> staleSave = writeBehind.save(stored);
+        CompletableFuture<Todo> otherSave = writeBehind.save(other);
+
+        assertFailsWith(OptimisticLockingFailureException.class, staleSave);
+        Assertions.assertEquals(0L, stored.getVersion());
+        Assertions.assertEquals("changed elsewhere", mongoTemplate.findById(stored.getId(), Todo.class).getBody());
+        Assertions.assertEquals(1L, otherSave.get(5, TimeUnit.SECONDS).getVersion());
+    }
+
+    @Test
+    public void concurrentSavesOfOneVersionDoNotBothSucceed() throws Exception {
+        Todo stored = mongoTemplate.insert(Todo.builder().title("stored").version(0L).build());
+        Todo first = stored.toBuilder().body("first").build();
+        Todo second = stored.toBuilder().body("second").build();
+
+        CompletableFuture<Todo> firstSave = writeBehind.save(first);
+        CompletableFuture<Todo> secondSave = writeBehind.save(second);
+
+        Assertions.assertEquals(1L, firstSave.get(5, TimeUnit.SECONDS).getVersion());
+        assertFailsWith(OptimisticLockingFailureException.class, secondSave);
+        Assertions.assertEquals(0L, second.getVersion());
+        Assertions.assertEquals("first", mongoTemplate.findById(stored.getId(), Todo.class).getBody());
+    }
+
+    @Test
+    public void repeatedSavesOfOneTodoAreAllWritten() throws Exception {
+        Todo todo = Todo.builder().title("repeated").build();
+
+        CompletableFuture<Todo> created = writeBehind.save(todo);
+        CompletableFuture<Todo> updated = writeBehind.save(todo);
+
+        created.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1L, updated.get(5, TimeUnit.SECONDS).getVersion());
+        Assertions.assertEquals(1, mongoTemplate.count(new Query(), Todo.class));
+    }
+
+    @Test
+    public void closeCommitsWhatIsQueued() throws Exception {
+        CompletableFuture<Todo> save = writeBehind.save(Todo.builder().title("queued").build());
+
+        writeBehind.close();
+
+        Assertions.assertTrue(save.isDone());
+        Assertions.assertNotNull(save.get().getId());
+        Assertions.assertEquals(1, mongoTemplate.count(new Query(), Todo.class));
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, CompletableFuture<Todo> save) {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> save.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(expected, e.getCause());
+    }
+}